@@ -1,9 +1,18 @@
 package nota;
 
 import net.minecraft.server.level.ServerPlayer;
+import nota.model.playmode.NoteBudget;
+import nota.player.AudioClock;
+import nota.player.EmitterIndex;
+import nota.player.PlaybackScheduler;
 import nota.player.SongPlayer;
+import nota.player.SongScheduler;
+import nota.utils.InstrumentSounds;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.entity.event.v1.ServerPlayerEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.server.MinecraftServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +30,15 @@ public class Nota implements ModInitializer {
 
 	private static Nota instance;
 	public MinecraftServer server;
+	// shared by both schedulers so the cap holds per server tick
+	private final NoteBudget noteBudget = new NoteBudget();
+	private final PlaybackScheduler scheduler = new PlaybackScheduler(noteBudget);
+	private AudioClock audioClock = null;
+	private final EmitterIndex emitterIndex = new EmitterIndex();
 
-	Map<UUID, ArrayList<SongPlayer>> playingSongs = new ConcurrentHashMap<>();
+	// reverse index of SongPlayer#playerList, sets are removed once empty
+	Map<UUID, Set<SongPlayer>> playingSongs = new ConcurrentHashMap<>();
+	// only volumes other than 100, dropped when the player disconnects
 	Map<UUID, Byte> playerVolume = new ConcurrentHashMap<>();
 
 	private boolean disabling = false;
@@ -44,7 +60,7 @@ public class Nota implements ModInitializer {
 	 * @return is receiving a song
 	 */
 	public static boolean isReceivingSong(UUID playerUuid) {
-		ArrayList<SongPlayer> songs = instance.playingSongs.get(playerUuid);
+		Set<SongPlayer> songs = instance.playingSongs.get(playerUuid);
 		return (songs != null && !songs.isEmpty());
 	}
 
@@ -63,10 +79,11 @@ public class Nota implements ModInitializer {
 	 * @param playerUuid player's uuid
 	 */
 	public static void stopPlaying(UUID playerUuid) {
-		ArrayList<SongPlayer> songs = instance.playingSongs.get(playerUuid);
+		Set<SongPlayer> songs = instance.playingSongs.get(playerUuid);
 		if(songs == null) {
 			return;
 		}
+		// weakly consistent, SongPlayers removed meanwhile are skipped
 		for(SongPlayer songPlayer : songs) {
 			songPlayer.removePlayer(playerUuid);
 		}
@@ -83,13 +100,18 @@ public class Nota implements ModInitializer {
 	}
 
 	/**
-	 * Sets the volume for a given Player
+	 * Sets the volume for a given Player until the Player disconnects
 	 *
 	 * @param playerUuid player's uuid
 	 * @param volume volume
 	 */
 	public static void setPlayerVolume(UUID playerUuid, byte volume) {
-		instance.playerVolume.put(playerUuid, volume);
+		if(volume == 100) {
+			instance.playerVolume.remove(playerUuid);
+		}
+		else {
+			instance.playerVolume.put(playerUuid, volume);
+		}
 	}
 
 	/**
@@ -109,29 +131,162 @@ public class Nota implements ModInitializer {
 	 * @return volume (byte)
 	 */
 	public static byte getPlayerVolume(UUID playerUuid) {
-		if(instance.playerVolume.containsKey(playerUuid)) {
-			return instance.playerVolume.get(playerUuid);
-		}
-		else {
-			instance.playerVolume.put(playerUuid, (byte) 100);
-			return 100;
-		}
+		Byte volume = instance.playerVolume.get(playerUuid);
+		return volume != null ? volume : 100;
 	}
 
+	/**
+	 * Gets the maximum number of notes a Player receives per tick from all SongPlayers
+	 *
+	 * @return budget, 0 if unlimited
+	 */
+	public static int getNoteBudget() {
+		return instance.noteBudget.getLimit();
+	}
+
+	/**
+	 * Sets the maximum number of notes a Player receives per tick from all SongPlayers.
+	 * <p>
+	 * Notes over the budget are dropped, the quietest first. Loudness is weighted by
+	 * {@link SongPlayer#setPriority(float)} and {@link SongPlayer#setLayerPriority(int, float)}.
+	 * The budget is shared by both schedulers and resets every server tick. With {@link AudioClock} enabled, notes are
+	 * sent several times per server tick, so notes sent earlier in the tick use up the budget first.
+	 *
+	 * @param budget notes per Player and tick, 0 for unlimited
+	 */
+	public static void setNoteBudget(int budget) {
+		instance.noteBudget.setLimit(budget);
+	}
+
+	/**
+	 * Gets number of notes dropped over the note budget
+	 *
+	 * @return dropped notes since the server started
+	 */
+	public static long getDroppedNotes() {
+		return instance.noteBudget.getDroppedNotes();
+	}
+
+	/**
+	 * Gets number of notes of a Player dropped over the note budget
+	 *
+	 * @param playerUuid player's uuid
+	 * @return dropped notes since the Player joined
+	 */
+	public static long getDroppedNotes(UUID playerUuid) {
+		return instance.noteBudget.getDroppedNotes(playerUuid);
+	}
+
+	/**
+	 * Gets SongPlayers a Player is listening to
+	 *
+	 * @param playerUuid player's uuid
+	 * @return unmodifiable live view, empty if the Player listens to nothing
+	 */
+	public static Set<SongPlayer> getSongPlayers(UUID playerUuid) {
+		Set<SongPlayer> songs = instance.playingSongs.get(playerUuid);
+		return songs != null ? Collections.unmodifiableSet(songs) : Collections.emptySet();
+	}
+
+	/**
+	 * Gets a copy of SongPlayers a Player is listening to
+	 *
+	 * @param player player entity
+	 * @return list of SongPlayers, null if the Player listens to nothing
+	 * @deprecated use {@link #getSongPlayers(UUID)}
+	 */
+	@Deprecated
 	public static ArrayList<SongPlayer> getSongPlayersByPlayer(ServerPlayer player) {
 		return getSongPlayersByPlayer(player.getUUID());
 	}
 
+	/**
+	 * Gets a copy of SongPlayers a Player is listening to
+	 *
+	 * @param playerUuid player's uuid
+	 * @return list of SongPlayers, null if the Player listens to nothing
+	 * @deprecated use {@link #getSongPlayers(UUID)}
+	 */
+	@Deprecated
 	public static ArrayList<SongPlayer> getSongPlayersByPlayer(UUID playerUuid) {
-		return instance.playingSongs.get(playerUuid);
+		Set<SongPlayer> songs = instance.playingSongs.get(playerUuid);
+		return songs != null ? new ArrayList<>(songs) : null;
 	}
 
+	/**
+	 * Replaces SongPlayers a Player is listening to, without changing the SongPlayers
+	 *
+	 * @deprecated use {@link SongPlayer#addPlayer(UUID)} and {@link SongPlayer#removePlayer(UUID)}
+	 */
+	@Deprecated
 	public static void setSongPlayersByPlayer(ServerPlayer player, ArrayList<SongPlayer> songs) {
 		setSongPlayersByPlayer(player.getUUID(), songs);
 	}
 
+	/**
+	 * Replaces SongPlayers a Player is listening to, without changing the SongPlayers
+	 *
+	 * @deprecated use {@link SongPlayer#addPlayer(UUID)} and {@link SongPlayer#removePlayer(UUID)}
+	 */
+	@Deprecated
 	public static void setSongPlayersByPlayer(UUID playerUuid, ArrayList<SongPlayer> songs) {
-		instance.playingSongs.put(playerUuid, songs);
+		if(songs == null || songs.isEmpty()) {
+			instance.playingSongs.remove(playerUuid);
+			return;
+		}
+		Set<SongPlayer> set = ConcurrentHashMap.newKeySet();
+		set.addAll(songs);
+		instance.playingSongs.put(playerUuid, set);
+	}
+
+	/**
+	 * Records that a Player listens to a SongPlayer, called by {@link SongPlayer}
+	 *
+	 * @param playerUuid player's uuid
+	 * @param songPlayer song player
+	 */
+	public static void addListener(UUID playerUuid, SongPlayer songPlayer) {
+		instance.playingSongs.compute(playerUuid, (uuid, songs) -> {
+			if(songs == null) {
+				songs = ConcurrentHashMap.newKeySet();
+			}
+			songs.add(songPlayer);
+			return songs;
+		});
+	}
+
+	/**
+	 * Records that a Player stopped listening to a SongPlayer, called by {@link SongPlayer}
+	 *
+	 * @param playerUuid player's uuid
+	 * @param songPlayer song player
+	 */
+	public static void removeListener(UUID playerUuid, SongPlayer songPlayer) {
+		instance.playingSongs.computeIfPresent(playerUuid, (uuid, songs) -> {
+			songs.remove(songPlayer);
+			return songs.isEmpty() ? null : songs;
+		});
+	}
+
+	/**
+	 * Resolves the new ServerPlayer for every SongPlayer the Player listens to
+	 */
+	private void updatePlayer(ServerPlayer player) {
+		Set<SongPlayer> songs = playingSongs.get(player.getUUID());
+		if(songs != null) {
+			for(SongPlayer songPlayer : songs) {
+				songPlayer.updatePlayer(player);
+			}
+		}
+	}
+
+	/**
+	 * Removes the Player from all SongPlayers and forgets the volume
+	 */
+	private void onDisconnect(ServerPlayer player) {
+		stopPlaying(player.getUUID());
+		playerVolume.remove(player.getUUID());
+		noteBudget.remove(player.getUUID());
 	}
 
 	public boolean isDisabling() {
@@ -146,11 +301,91 @@ public class Nota implements ModInitializer {
 		return this.server;
 	}
 
+	/**
+	 * Gets the scheduler which new SongPlayers are registered to
+	 *
+	 * @return {@link AudioClock} if enabled, otherwise {@link PlaybackScheduler} driven by the server tick
+	 */
+	public SongScheduler getScheduler() {
+		if(this.audioClock != null) {
+			return this.audioClock;
+		}
+		return this.scheduler;
+	}
+
+	/**
+	 * Gets the scheduler driven by the server tick, used by SongPlayers which read entities or players
+	 * and must not run on {@link AudioClock}
+	 *
+	 * @return server tick scheduler
+	 */
+	public SongScheduler getServerScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * Gets the spatial index of range SongPlayers with automatic audience
+	 *
+	 * @return emitter index
+	 */
+	public EmitterIndex getEmitterIndex() {
+		return this.emitterIndex;
+	}
+
+	/**
+	 * Plays SongPlayers from a dedicated high resolution clock thread instead of the server tick.
+	 * Songs with tempo that does not divide 50 ms will keep their exact timing.
+	 * <p>
+	 * Only {@link nota.player.RadioSongPlayer}s are played from the clock. {@link nota.player.RangeSongPlayer}s read
+	 * positions of entities and players owned by the server thread, so they stay on the server tick.
+	 * <p>
+	 * Only affects SongPlayers created after this call, so it should be called during initialization.
+	 */
+	public void enableAudioClock() {
+		if(this.audioClock == null) {
+			this.audioClock = new AudioClock(this.noteBudget);
+			this.audioClock.start();
+		}
+	}
+
+	/**
+	 * Returns true if SongPlayers are played from {@link AudioClock}
+	 *
+	 * @return is audio clock enabled
+	 */
+	public boolean isAudioClockEnabled() {
+		return this.audioClock != null;
+	}
+
 	@Override
 	public void onInitialize() {
 		Nota.instance = this;
-		ServerLifecycleEvents.SERVER_STARTED.register(server -> Nota.getAPI().server = server);
-		ServerLifecycleEvents.SERVER_STOPPING.register(server -> Nota.getAPI().disabling = true);
+		ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+			Nota.getAPI().server = server;
+			InstrumentSounds.resolve(server);
+			if(Nota.getAPI().audioClock != null) {
+				Nota.getAPI().audioClock.start();
+			}
+		});
+		ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+			Nota.getAPI().disabling = true;
+			Nota.getAPI().scheduler.clear();
+			Nota.getAPI().emitterIndex.clear();
+			if(Nota.getAPI().audioClock != null) {
+				Nota.getAPI().audioClock.clear();
+				Nota.getAPI().audioClock.stop();
+				// threads can't be started twice, the next server start gets a new clock
+				Nota.getAPI().audioClock = new AudioClock(Nota.getAPI().noteBudget);
+			}
+		});
+		ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> Nota.getAPI().updatePlayer(handler.getPlayer()));
+		ServerPlayerEvents.AFTER_RESPAWN.register((oldPlayer, newPlayer, alive) -> Nota.getAPI().updatePlayer(newPlayer));
+		ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> Nota.getAPI().onDisconnect(handler.getPlayer()));
+		ServerTickEvents.END_SERVER_TICK.register(server -> {
+			Nota.getAPI().emitterIndex.update();
+			Nota.getAPI().scheduler.tick(server);
+			Nota.getAPI().noteBudget.nextTick();
+		});
 
 		LOGGER.info("NotaAPI initialized");
 	}
@@ -0,0 +1,236 @@
+package nota.library;
+
+import nota.model.CompiledSong;
+import nota.model.SharedSong;
+import nota.model.Song;
+import nota.utils.NBSCache;
+import nota.utils.NBSDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory-bounded cache of decoded songs keyed by content hash of their .nbs file.
+ * <p>
+ * Songs are decoded on demand with {@link NBSDecoder}. Files with the same content resolve to one read-only
+ * {@link SharedSong}, its {@link Song#getPath()} is the path of the first file loaded with that content. Once the estimated size of all songs exceeds the budget, the least
+ * recently used songs are dropped from the cache, songs still referenced elsewhere (for example by a
+ * {@link nota.model.Playlist}) stay in memory until they are released.
+ *
+ * <pre>{@code
+ * SongCache cache = new SongCache(64 * 1024 * 1024); // 64 MiB
+ * Song song = cache.get(new File("songs/tetris.nbs"));
+ * }</pre>
+ */
+public class SongCache {
+	private static final HexFormat HEX = HexFormat.of();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+	private final HashMap<File, FileStamp> files = new HashMap<>();
+	private long maxBytes;
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param maxBytes estimated heap size all cached songs can use
+	 */
+	public SongCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a song, decodes it if it is not cached or its file changed
+	 *
+	 * @param songFile .nbs file
+	 * @return shared read-only song
+	 * @throws IOException if the file can't be read or is corrupted
+	 */
+	public Song get(File songFile) throws IOException {
+		File file = songFile.getAbsoluteFile();
+		long size = file.length();
+		long modified = file.lastModified();
+
+		synchronized(this) {
+			FileStamp stamp = files.get(file);
+			if(stamp != null && stamp.size() == size && stamp.modified() == modified) {
+				Entry entry = entries.get(stamp.key());
+				if(entry != null) {
+					hits++;
+					return entry.song;
+				}
+			}
+		}
+
+		ByteBuffer data = NBSDecoder.read(file);
+		String key = HEX.formatHex(NBSCache.hash(data));
+		synchronized(this) {
+			files.put(file, new FileStamp(size, modified, key));
+			Entry entry = entries.get(key);
+			if(entry != null) {
+				hits++; // same content under another path or unchanged content
+				return entry.song;
+			}
+		}
+
+		Song song = new SharedSong(decode(data, file));
+		long weight = weigh(song);
+		synchronized(this) {
+			Entry entry = entries.get(key);
+			if(entry != null) {
+				hits++; // decoded by another thread meanwhile
+				return entry.song;
+			}
+			misses++;
+			entries.put(key, new Entry(song, weight));
+			bytes += weight;
+			evict(key);
+		}
+		return song;
+	}
+
+	/**
+	 * Decodes a song which is not cached, the song is handed out as a {@link SharedSong}
+	 *
+	 * @param data     content of the .nbs file
+	 * @param songFile .nbs file
+	 * @return decoded song
+	 * @throws IOException if the content is corrupted
+	 */
+	protected Song decode(ByteBuffer data, File songFile) throws IOException {
+		Song song = NBSDecoder.decode(data, songFile);
+		song.getCompiled();
+		return song;
+	}
+
+	/**
+	 * Estimates heap size of a song, counts the compiled timeline and metadata
+	 *
+	 * @param song song
+	 * @return estimated size in bytes
+	 */
+	protected long weigh(Song song) {
+		CompiledSong compiled = song.getCompiled();
+		long notes = compiled.getNoteCount();
+		long size = 512; // song, metadata and headers of arrays
+		size += (compiled.getLastTick() + 2) * 4L; // tick offsets
+		size += notes * 22; // layer, packed note, pitches and gain of each note, shared songs never keep Layers
+		size += (long) song.getSongHeight() * 64;
+		size += 2L * (length(song.getTitle()) + length(song.getAuthor()) + length(song.getOriginalAuthor()) + length(song.getDescription()));
+		return size;
+	}
+
+	private static int length(String string) {
+		return string != null ? string.length() : 0;
+	}
+
+	private void evict(String keep) {
+		boolean evicted = false;
+		for(Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); bytes > maxBytes && iterator.hasNext(); ) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			if(entry.getKey().equals(keep)) {
+				continue;
+			}
+			iterator.remove();
+			bytes -= entry.getValue().weight;
+			evictions++;
+			evicted = true;
+		}
+		if(evicted) {
+			// stamps of evicted songs would only lead to a second lookup
+			files.values().removeIf(stamp -> !entries.containsKey(stamp.key()));
+		}
+	}
+
+	/**
+	 * Sets the budget and drops songs over it
+	 *
+	 * @param maxBytes estimated heap size all cached songs can use
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict(null);
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets estimated heap size of all cached songs
+	 *
+	 * @return size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets number of cached songs, files with the same content are counted once
+	 *
+	 * @return song count
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Drops a file from the cache, the song stays cached while other files have the same content
+	 *
+	 * @param songFile .nbs file
+	 */
+	public synchronized void invalidate(File songFile) {
+		FileStamp stamp = files.remove(songFile.getAbsoluteFile());
+		if(stamp == null || files.values().stream().anyMatch(other -> other.key().equals(stamp.key()))) {
+			return;
+		}
+		Entry entry = entries.remove(stamp.key());
+		if(entry != null) {
+			bytes -= entry.weight;
+		}
+	}
+
+	/**
+	 * Drops all songs
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		files.clear();
+		bytes = 0;
+	}
+
+	private record FileStamp(long size, long modified, String key) {
+	}
+
+	private static class Entry {
+		final Song song;
+		final long weight;
+
+		Entry(Song song, long weight) {
+			this.song = song;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package nota.library;
+
+import nota.model.SongInfo;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Searchable index of {@link SongInfo}s.
+ * <p>
+ * Title, author and original author are indexed as whole values and by their words, both in sorted maps,
+ * so a typeahead query only visits entries starting with what was typed. Matching ignores case and accents.
+ * Songs can be listed by length or tempo. Songs can be added and removed at any time, every method is thread-safe.
+ *
+ * <pre>{@code
+ * SongCatalog catalog = new SongCatalog();
+ * catalog.add(NBSDecoder.scan(file));
+ * List<SongInfo> found = catalog.search("tetr", 10);
+ * }</pre>
+ */
+public class SongCatalog {
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final String[] EMPTY = new String[0];
+	private static final char MAX_CHAR = Character.MAX_VALUE;
+
+	private static final Comparator<Entry> BY_LENGTH = Comparator.<Entry>comparingInt(entry -> entry.info.length()).thenComparingLong(entry -> entry.id);
+	private static final Comparator<Entry> BY_TEMPO = Comparator.<Entry>comparingDouble(entry -> entry.info.speed()).thenComparingLong(entry -> entry.id);
+
+	private final Map<SongInfo, Entry> entries = new HashMap<>();
+	private final TreeMap<String, Set<Entry>> values = new TreeMap<>();
+	private final TreeMap<String, Set<Entry>> words = new TreeMap<>();
+	private final TreeSet<Entry> byLength = new TreeSet<>(BY_LENGTH);
+	private final TreeSet<Entry> byTempo = new TreeSet<>(BY_TEMPO);
+	private long nextId = 0;
+
+	/**
+	 * Adds a song to the catalog
+	 *
+	 * @param info song metadata
+	 * @return false if the song is already in the catalog
+	 */
+	public synchronized boolean add(SongInfo info) {
+		if(entries.containsKey(info)) {
+			return false;
+		}
+		Entry entry = new Entry(nextId++, info);
+		entries.put(info, entry);
+		for(String value : entry.values) {
+			values.computeIfAbsent(value, v -> new HashSet<>()).add(entry);
+		}
+		for(String word : entry.words) {
+			words.computeIfAbsent(word, w -> new HashSet<>()).add(entry);
+		}
+		byLength.add(entry);
+		byTempo.add(entry);
+		return true;
+	}
+
+	/**
+	 * Adds songs to the catalog
+	 *
+	 * @param infos songs metadata
+	 */
+	public synchronized void addAll(Collection<SongInfo> infos) {
+		for(SongInfo info : infos) {
+			add(info);
+		}
+	}
+
+	/**
+	 * Removes a song from the catalog
+	 *
+	 * @param info song metadata
+	 * @return false if the song was not in the catalog
+	 */
+	public synchronized boolean remove(SongInfo info) {
+		Entry entry = entries.remove(info);
+		if(entry == null) {
+			return false;
+		}
+		for(String value : entry.values) {
+			unindex(values, value, entry);
+		}
+		for(String word : entry.words) {
+			unindex(words, word, entry);
+		}
+		byLength.remove(entry);
+		byTempo.remove(entry);
+		return true;
+	}
+
+	private static void unindex(TreeMap<String, Set<Entry>> index, String key, Entry entry) {
+		Set<Entry> indexed = index.get(key);
+		if(indexed != null && indexed.remove(entry) && indexed.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	/**
+	 * Finds songs for a typed query.
+	 * Songs whose title, author or original author starts with the query come first,
+	 * then songs where every word of the query starts a word of these fields.
+	 *
+	 * @param query typed text
+	 * @param limit maximum number of results
+	 * @return matching songs
+	 */
+	public synchronized List<SongInfo> search(String query, int limit) {
+		String[] tokens = tokenize(query);
+		if(tokens.length == 0 || limit <= 0) {
+			return Collections.emptyList();
+		}
+		LinkedHashSet<Entry> found = new LinkedHashSet<>();
+
+		String value = String.join(" ", tokens);
+		collect:
+		for(Set<Entry> indexed : values.subMap(value, value + MAX_CHAR).values()) {
+			for(Entry entry : indexed) {
+				found.add(entry);
+				if(found.size() >= limit) {
+					break collect;
+				}
+			}
+		}
+
+		if(found.size() < limit) {
+			// look up the longest word, it matches the fewest songs
+			String longest = tokens[0];
+			for(String token : tokens) {
+				if(token.length() > longest.length()) {
+					longest = token;
+				}
+			}
+			collect:
+			for(Set<Entry> indexed : words.subMap(longest, longest + MAX_CHAR).values()) {
+				for(Entry entry : indexed) {
+					if(!found.contains(entry) && entry.matches(tokens)) {
+						found.add(entry);
+						if(found.size() >= limit) {
+							break collect;
+						}
+					}
+				}
+			}
+		}
+
+		List<SongInfo> result = new ArrayList<>(found.size());
+		for(Entry entry : found) {
+			result.add(entry.info);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets songs with length in a range, sorted from shortest
+	 *
+	 * @param minLength minimal length in ticks (inclusive)
+	 * @param maxLength maximal length in ticks (inclusive)
+	 * @return songs
+	 */
+	public synchronized List<SongInfo> getByLength(int minLength, int maxLength) {
+		if(minLength > maxLength) {
+			return Collections.emptyList();
+		}
+		Entry from = new Entry(Long.MIN_VALUE, new SongInfo(null, "", "", "", "", minLength, 0, 0));
+		Entry to = new Entry(Long.MAX_VALUE, new SongInfo(null, "", "", "", "", maxLength, 0, 0));
+		return toList(byLength.subSet(from, true, to, true));
+	}
+
+	/**
+	 * Gets songs with tempo in a range, sorted from slowest
+	 *
+	 * @param minSpeed minimal speed in ticks per second (inclusive)
+	 * @param maxSpeed maximal speed in ticks per second (inclusive)
+	 * @return songs
+	 */
+	public synchronized List<SongInfo> getByTempo(float minSpeed, float maxSpeed) {
+		if(minSpeed > maxSpeed) {
+			return Collections.emptyList();
+		}
+		Entry from = new Entry(Long.MIN_VALUE, new SongInfo(null, "", "", "", "", 0, minSpeed, 0));
+		Entry to = new Entry(Long.MAX_VALUE, new SongInfo(null, "", "", "", "", 0, maxSpeed, 0));
+		return toList(byTempo.subSet(from, true, to, true));
+	}
+
+	/**
+	 * Gets all songs sorted by length
+	 *
+	 * @param descending true to start with the longest song
+	 * @return songs
+	 */
+	public synchronized List<SongInfo> getAllByLength(boolean descending) {
+		return toList(descending ? byLength.descendingSet() : byLength);
+	}
+
+	/**
+	 * Gets all songs sorted by tempo
+	 *
+	 * @param descending true to start with the fastest song
+	 * @return songs
+	 */
+	public synchronized List<SongInfo> getAllByTempo(boolean descending) {
+		return toList(descending ? byTempo.descendingSet() : byTempo);
+	}
+
+	private static List<SongInfo> toList(NavigableSet<Entry> entries) {
+		List<SongInfo> result = new ArrayList<>(entries.size());
+		for(Entry entry : entries) {
+			result.add(entry.info);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the song is in the catalog
+	 *
+	 * @param info song metadata
+	 * @return if the song is in the catalog
+	 */
+	public synchronized boolean contains(SongInfo info) {
+		return entries.containsKey(info);
+	}
+
+	/**
+	 * Gets number of songs in the catalog
+	 *
+	 * @return song count
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all songs from the catalog
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		values.clear();
+		words.clear();
+		byLength.clear();
+		byTempo.clear();
+	}
+
+	/**
+	 * Normalizes text and splits it into words
+	 *
+	 * @param text text
+	 * @return lower-case words without accents
+	 */
+	static String[] tokenize(String text) {
+		if(text == null || text.isEmpty()) {
+			return EMPTY;
+		}
+		for(int i = 0; i < text.length(); i++) {
+			if(text.charAt(i) >= 0x80) {
+				text = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+				break;
+			}
+		}
+		text = text.toLowerCase(Locale.ROOT);
+
+		ArrayList<String> tokens = new ArrayList<>();
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean part = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(part && start < 0) {
+				start = i;
+			}
+			else if(!part && start >= 0) {
+				tokens.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens.toArray(EMPTY);
+	}
+
+	private static class Entry {
+		final long id;
+		final SongInfo info;
+		final Set<String> values = new HashSet<>(3);
+		final Set<String> words = new HashSet<>();
+
+		Entry(long id, SongInfo info) {
+			this.id = id;
+			this.info = info;
+			if(id == Long.MIN_VALUE || id == Long.MAX_VALUE) {
+				return; // range bound
+			}
+			for(String field : new String[] {info.title(), info.author(), info.originalAuthor()}) {
+				String[] tokens = tokenize(field);
+				if(tokens.length > 0) {
+					values.add(String.join(" ", tokens));
+					Collections.addAll(words, tokens);
+				}
+			}
+		}
+
+		/**
+		 * Returns true if every token starts a word of this song
+		 */
+		boolean matches(String[] tokens) {
+			for(String token : tokens) {
+				boolean matched = false;
+				for(String word : words) {
+					if(word.startsWith(token)) {
+						matched = true;
+						break;
+					}
+				}
+				if(!matched) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
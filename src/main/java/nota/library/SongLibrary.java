@@ -0,0 +1,298 @@
+package nota.library;
+
+import nota.Nota;
+import nota.model.Song;
+import nota.utils.NBSCache;
+import nota.utils.NBSDecoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Loads all .nbs files of a directory tree in parallel.
+ * <p>
+ * Songs are decoded on a bounded pool of background threads, every file is published
+ * as a {@link CompletableFuture} right after the scan, so the server does not wait for the songs.
+ * Files which can't be decoded complete their future exceptionally and are listed in {@link #getFailures()}.
+ *
+ * <pre>{@code
+ * SongLibrary library = new SongLibrary(Path.of("config/songs")).load();
+ * library.get(Path.of("config/songs/tetris.nbs")).thenAccept(song -> ...);
+ * library.whenLoaded().thenRun(() -> ...);
+ * }</pre>
+ */
+public class SongLibrary implements AutoCloseable {
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+	private final Path root;
+	private final ThreadPoolExecutor executor;
+	private final Map<Path, CompletableFuture<Song>> songs = new ConcurrentHashMap<>();
+	private final Map<Path, Throwable> failures = new ConcurrentHashMap<>();
+	private volatile boolean cached = false;
+	private volatile Path cacheDirectory;
+	private volatile SongStore store;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a library using one thread less than there are processors
+	 *
+	 * @param root directory with songs
+	 */
+	public SongLibrary(Path root) {
+		this(root, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/**
+	 * Creates a library
+	 *
+	 * @param root    directory with songs
+	 * @param threads maximum number of songs decoded at once
+	 */
+	public SongLibrary(Path root, int threads) {
+		this.root = root;
+		this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "Nota Song Loader #" + THREAD_COUNTER.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Sets whether songs are loaded through compiled .nbsc caches, see {@link NBSCache}
+	 *
+	 * @param cached if caches should be used (Default false)
+	 * @return this library
+	 */
+	public SongLibrary setCached(boolean cached) {
+		this.cached = cached;
+		return this;
+	}
+
+	/**
+	 * Sets directory in which compiled .nbsc caches are stored and enables them
+	 *
+	 * @param cacheDirectory directory, null to store caches next to the songs
+	 * @return this library
+	 */
+	public SongLibrary setCacheDirectory(Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		this.cached = true;
+		return this;
+	}
+
+	/**
+	 * Returns whether songs are loaded through compiled .nbsc caches
+	 *
+	 * @return if caches are used
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * Sets store in which timelines of decoded songs are kept outside of the heap, see {@link SongStore}
+	 *
+	 * @param store store, null to keep songs on the heap (Default null)
+	 * @return this library
+	 */
+	public SongLibrary setStore(SongStore store) {
+		this.store = store;
+		return this;
+	}
+
+	/**
+	 * Gets store in which timelines of decoded songs are kept
+	 *
+	 * @return store, null if songs are kept on the heap
+	 */
+	public SongStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Scans the directory tree and starts decoding every .nbs file which is not loaded yet
+	 *
+	 * @return this library
+	 */
+	public SongLibrary load() {
+		try(Stream<Path> files = Files.walk(root)) {
+			files.filter(SongLibrary::isSongFile).forEach(this::load);
+		}
+		catch(IOException | UncheckedIOException e) {
+			Nota.LOGGER.error("Failed to scan song library {}: {}", root, e.getMessage());
+		}
+		return this;
+	}
+
+	/**
+	 * Starts decoding a single file unless it is already loaded
+	 *
+	 * @param file .nbs file
+	 * @return future of the song, cancelled if this library is closed
+	 */
+	public CompletableFuture<Song> load(Path file) {
+		if(closed) {
+			return CompletableFuture.failedFuture(new CancellationException("Song library is closed"));
+		}
+		return songs.computeIfAbsent(file.toAbsolutePath().normalize(), path -> {
+			LoadTask task = new LoadTask(path);
+			try {
+				executor.execute(task);
+			}
+			catch(RejectedExecutionException e) {
+				// closed while loading
+				task.cancel();
+			}
+			return task.future;
+		});
+	}
+
+	/**
+	 * Decodes a single file, called on a loader thread
+	 *
+	 * @param file .nbs file
+	 * @return decoded song
+	 * @throws IOException if the file can't be read or is corrupted
+	 */
+	protected Song decode(Path file) throws IOException {
+		Song song;
+		if(cached) {
+			Path cacheDirectory = this.cacheDirectory;
+			song = NBSCache.load(file.toFile(), cacheDirectory != null ? cacheDirectory.toFile() : null);
+		}
+		else {
+			song = NBSDecoder.decode(file.toFile());
+		}
+		SongStore store = this.store;
+		return store != null ? store.add(song) : song;
+	}
+
+	/**
+	 * Gets future of a song in this library
+	 *
+	 * @param file .nbs file
+	 * @return future of the song, null if the file was not loaded
+	 */
+	public CompletableFuture<Song> get(Path file) {
+		return songs.get(file.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Gets futures of all songs in this library
+	 *
+	 * @return unmodifiable map of song files and their futures
+	 */
+	public Map<Path, CompletableFuture<Song>> getSongs() {
+		return Collections.unmodifiableMap(songs);
+	}
+
+	/**
+	 * Gets all songs which finished decoding successfully
+	 *
+	 * @return list of loaded songs
+	 */
+	public List<Song> getLoadedSongs() {
+		List<Song> loaded = new ArrayList<>();
+		for(CompletableFuture<Song> future : songs.values()) {
+			if(future.isDone() && !future.isCompletedExceptionally()) {
+				loaded.add(future.join());
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Gets files which failed to load and the reason
+	 *
+	 * @return unmodifiable map of song files and their errors
+	 */
+	public Map<Path, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Returns future completed once every song started so far is decoded or failed
+	 *
+	 * @return future
+	 */
+	public CompletableFuture<Void> whenLoaded() {
+		CompletableFuture<?>[] futures = songs.values().stream()
+				.map(future -> future.handle((song, error) -> null))
+				.toArray(CompletableFuture[]::new);
+		return CompletableFuture.allOf(futures);
+	}
+
+	/**
+	 * Gets the root directory of this library
+	 *
+	 * @return directory
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Stops loader threads, futures of songs which did not start decoding yet are cancelled
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for(Runnable queued : executor.shutdownNow()) {
+			if(queued instanceof LoadTask task) {
+				task.cancel();
+			}
+		}
+	}
+
+	static boolean isSongFile(Path path) {
+		return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".nbs");
+	}
+
+	private final class LoadTask implements Runnable {
+		final Path path;
+		final CompletableFuture<Song> future = new CompletableFuture<>();
+
+		LoadTask(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+			try {
+				future.complete(decode(path));
+			}
+			catch(IOException e) {
+				failures.put(path, e);
+				Nota.LOGGER.warn("Failed to load song {}: {}", path, e.getMessage());
+				future.completeExceptionally(new CompletionException(new UncheckedIOException(e)));
+			}
+			catch(RuntimeException e) {
+				failures.put(path, e);
+				Nota.LOGGER.error("Failed to load song {}", path, e);
+				future.completeExceptionally(new CompletionException(e));
+			}
+		}
+
+		void cancel() {
+			future.completeExceptionally(new CancellationException("Song library is closed"));
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package nota.library;
+
+import nota.model.Song;
+import nota.model.StoredSong;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps timelines of many songs delta-encoded outside of the Java heap.
+ * <p>
+ * Timelines are appended to chunks of {@link #CHUNK_SIZE} bytes, either direct memory or regions
+ * of a memory-mapped file which the operating system can page out. Songs returned by {@link #add(Song)}
+ * keep only their metadata on the heap and decode notes into a small window while they are played,
+ * see {@link StoredSong}.
+ *
+ * <pre>{@code
+ * SongStore store = new SongStore(Path.of("config/songs.store"));
+ * Song song = store.add(NBSDecoder.decode(file));
+ * }</pre>
+ */
+public class SongStore implements AutoCloseable {
+	public static final int CHUNK_SIZE = 4 << 20;
+
+	private final FileChannel channel;
+	private ByteBuffer chunk;
+	private long mapped = 0;
+	private long bytes = 0;
+	private int count = 0;
+
+	/**
+	 * Creates a store in direct memory
+	 */
+	public SongStore() {
+		this.channel = null;
+	}
+
+	/**
+	 * Creates a store in a memory-mapped file, existing content of the file is discarded
+	 *
+	 * @param file file backing the store
+	 * @throws IOException if the file can't be opened
+	 */
+	public SongStore(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Stores the timeline of a song
+	 *
+	 * @param song song, not modified
+	 * @return stored copy of the song
+	 * @throws IOException if the backing file can't be extended
+	 */
+	public StoredSong add(Song song) throws IOException {
+		byte[] encoded = StoredSong.encode(song.getCompiled());
+		ByteBuffer data;
+		synchronized(this) {
+			if(chunk == null || chunk.remaining() < encoded.length) {
+				chunk = allocate(Math.max(CHUNK_SIZE, encoded.length));
+			}
+			data = chunk.slice(chunk.position(), encoded.length);
+			chunk.put(encoded);
+			bytes += encoded.length;
+			count++;
+		}
+		return new StoredSong(song, data.asReadOnlyBuffer());
+	}
+
+	private ByteBuffer allocate(int size) throws IOException {
+		if(channel == null) {
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, mapped, size);
+		mapped += size;
+		return region;
+	}
+
+	/**
+	 * Gets number of bytes used by stored timelines
+	 *
+	 * @return size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets number of stored songs
+	 *
+	 * @return song count
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns whether this store is backed by a memory-mapped file
+	 *
+	 * @return if a file is used
+	 */
+	public boolean isMapped() {
+		return channel != null;
+	}
+
+	/**
+	 * Closes the backing file, mapped regions stay readable until songs of this store are collected
+	 *
+	 * @throws IOException if the file can't be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		chunk = null;
+		if(channel != null) {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,566 @@
+package nota.model;
+
+import net.minecraft.core.Holder;
+import net.minecraft.sounds.SoundEvent;
+import nota.utils.InstrumentSounds;
+import nota.utils.NoteUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tick-indexed columnar timeline of a {@link Song} used for playback.
+ * <p>
+ * Notes are stored as {@link PackedNote}s in primitive arrays sorted by tick and layer. Notes of a tick
+ * occupy the contiguous index range {@link #getStart(int)} (inclusive) to {@link #getEnd(int)} (exclusive),
+ * so playing a tick costs only as much as there are notes at that tick and allocates nothing.
+ * <p>
+ * Created with {@link Song#getCompiled()}, changes made to {@link Layer}s afterwards
+ * are not visible until {@link Song#recompile()} is called.
+ */
+public final class CompiledSong implements Timeline {
+	private static final short[] EMPTY_SHORTS = new short[0];
+	private static final byte[] EMPTY_BYTES = new byte[0];
+
+	private Song song;
+	private final int[] tickOffsets;
+
+	private final short[] layers;
+	private final long[] notes;
+
+	private final byte[] layerVolumes;
+	private final short[] layerPannings;
+
+	// resolved at compile time
+	private final float[] transposedPitches;
+	private final float[] octavePitches;
+	private final float[] gains;
+
+	private volatile SoundTable sounds;
+
+	CompiledSong(Song song, int[] tickOffsets, short[] layers, long[] notes, byte[] layerVolumes, short[] layerPannings) {
+		this.song = song;
+		this.tickOffsets = tickOffsets;
+		this.layers = layers;
+		this.notes = notes;
+		this.layerVolumes = layerVolumes;
+		this.layerPannings = layerPannings;
+
+		int count = layers.length;
+		this.transposedPitches = new float[count];
+		this.octavePitches = new float[count];
+		this.gains = new float[count];
+		for(int i = 0; i < count; i++) {
+			long note = notes[i];
+			transposedPitches[i] = NoteUtils.getPitchTransposed(PackedNote.getKey(note), PackedNote.getPitch(note));
+			octavePitches[i] = NoteUtils.getPitchInOctave(PackedNote.getKey(note), PackedNote.getPitch(note));
+			gains[i] = getGain(getLayerVolume(layers[i]), PackedNote.getVelocity(note));
+		}
+	}
+
+	/**
+	 * Gets volume factor of a note
+	 *
+	 * @param layerVolume volume of the layer
+	 * @param velocity    velocity of the note
+	 * @return layer volume * velocity, 1 at full volume
+	 */
+	static float getGain(int layerVolume, int velocity) {
+		return (layerVolume * velocity) / 100_00F;
+	}
+
+	/**
+	 * Compiles layers of a Song into a timeline
+	 *
+	 * @param song song
+	 * @return compiled timeline
+	 */
+	public static CompiledSong compile(Song song) {
+		HashMap<Integer, Layer> layerHashMap = song.getLayerHashMap();
+		int[] layerIndices = layerHashMap.keySet().stream().mapToInt(Integer::intValue).filter(i -> i >= 0).sorted().toArray();
+
+		int lastTick = -1;
+		int lastLayer = -1;
+		for(int layerIndex : layerIndices) {
+			lastLayer = layerIndex;
+			for(int tick : layerHashMap.get(layerIndex).getNotesAtTicks().keySet()) {
+				lastTick = Math.max(lastTick, tick);
+			}
+		}
+
+		// counting sort by tick, layers are visited in ascending order so each tick stays sorted by layer
+		int[] tickOffsets = new int[lastTick + 2];
+		for(int layerIndex : layerIndices) {
+			for(Map.Entry<Integer, Note> entry : layerHashMap.get(layerIndex).getNotesAtTicks().entrySet()) {
+				if(entry.getKey() >= 0 && entry.getValue() != null) {
+					tickOffsets[entry.getKey() + 1]++;
+				}
+			}
+		}
+		for(int tick = 1; tick < tickOffsets.length; tick++) {
+			tickOffsets[tick] += tickOffsets[tick - 1];
+		}
+
+		int count = tickOffsets[tickOffsets.length - 1];
+		short[] layers = new short[count];
+		long[] notes = new long[count];
+		byte[] layerVolumes = lastLayer < 0 ? EMPTY_BYTES : new byte[lastLayer + 1];
+		short[] layerPannings = lastLayer < 0 ? EMPTY_SHORTS : new short[lastLayer + 1];
+		Arrays.fill(layerVolumes, (byte) 100);
+		Arrays.fill(layerPannings, (short) 100);
+
+		int[] cursor = Arrays.copyOf(tickOffsets, tickOffsets.length);
+		for(int layerIndex : layerIndices) {
+			Layer layer = layerHashMap.get(layerIndex);
+			layerVolumes[layerIndex] = layer.getVolume();
+			layerPannings[layerIndex] = (short) layer.getPanning();
+			for(Map.Entry<Integer, Note> entry : layer.getNotesAtTicks().entrySet()) {
+				int tick = entry.getKey();
+				Note note = entry.getValue();
+				if(tick < 0 || note == null) {
+					continue;
+				}
+				int i = cursor[tick]++;
+				layers[i] = (short) layerIndex;
+				notes[i] = note.pack();
+			}
+		}
+
+		return new CompiledSong(song, tickOffsets, layers, notes, layerVolumes, layerPannings);
+	}
+
+	/**
+	 * Builds a timeline directly from decoded notes without creating {@link Layer}s and {@link Note}s.
+	 * Notes are usually added in tick and layer order, other orders are sorted when building
+	 * and a later note replaces an earlier one at the same tick and layer.
+	 */
+	public static final class Builder {
+		private int[] ticks;
+		private short[] layers;
+		private long[] notes;
+		private int count = 0;
+		private boolean sorted = true;
+		private byte[] layerVolumes = EMPTY_BYTES;
+		private short[] layerPannings = EMPTY_SHORTS;
+
+		/**
+		 * @param expectedNotes initial capacity
+		 */
+		public Builder(int expectedNotes) {
+			int capacity = Math.max(16, expectedNotes);
+			this.ticks = new int[capacity];
+			this.layers = new short[capacity];
+			this.notes = new long[capacity];
+		}
+
+		/**
+		 * Adds a note, notes at negative ticks or layers are ignored
+		 *
+		 * @param tick  tick
+		 * @param layer layer index
+		 * @param note  packed note
+		 * @see PackedNote#pack(byte, byte, byte, int, short)
+		 */
+		public void add(int tick, int layer, long note) {
+			if(tick < 0 || layer < 0) {
+				return;
+			}
+			if(count == notes.length) {
+				ticks = Arrays.copyOf(ticks, count * 2);
+				layers = Arrays.copyOf(layers, count * 2);
+				notes = Arrays.copyOf(notes, count * 2);
+			}
+			if(count > 0 && (tick < ticks[count - 1] || tick == ticks[count - 1] && layer <= layers[count - 1])) {
+				sorted = false;
+			}
+			ticks[count] = tick;
+			layers[count] = (short) layer;
+			notes[count] = note;
+			count++;
+		}
+
+		/**
+		 * Sets volume and panning of a layer, layers which are not set have volume and panning 100
+		 *
+		 * @param layer   layer index
+		 * @param volume  volume
+		 * @param panning panning
+		 */
+		public void setLayer(int layer, byte volume, int panning) {
+			if(layer < 0) {
+				return;
+			}
+			if(layer >= layerVolumes.length) {
+				int length = layerVolumes.length;
+				layerVolumes = Arrays.copyOf(layerVolumes, layer + 1);
+				layerPannings = Arrays.copyOf(layerPannings, layer + 1);
+				Arrays.fill(layerVolumes, length, layer + 1, (byte) 100);
+				Arrays.fill(layerPannings, length, layer + 1, (short) 100);
+			}
+			layerVolumes[layer] = volume;
+			layerPannings[layer] = (short) panning;
+		}
+
+		/**
+		 * Builds the timeline, bind it to a Song with
+		 * {@link Song#Song(float, CompiledSong, String[], short, short, String, String, String, String, java.io.File, int, CustomInstrument[], boolean)}
+		 *
+		 * @return compiled timeline
+		 */
+		public CompiledSong build() {
+			if(!sorted) {
+				sort();
+			}
+			int lastTick = count > 0 ? ticks[count - 1] : -1;
+			int[] tickOffsets = new int[lastTick + 2];
+			for(int i = 0; i < count; i++) {
+				tickOffsets[ticks[i] + 1]++;
+			}
+			for(int tick = 1; tick < tickOffsets.length; tick++) {
+				tickOffsets[tick] += tickOffsets[tick - 1];
+			}
+			return new CompiledSong(null, tickOffsets, Arrays.copyOf(layers, count), Arrays.copyOf(notes, count),
+					layerVolumes, layerPannings);
+		}
+
+		/**
+		 * Sorts notes by tick and layer, keeping the last added note of each tick and layer
+		 */
+		private void sort() {
+			Integer[] order = new Integer[count];
+			for(int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			// stable, so notes at the same tick and layer stay in the order they were added
+			Arrays.sort(order, (a, b) -> ticks[a] != ticks[b] ? Integer.compare(ticks[a], ticks[b]) : Integer.compare(layers[a], layers[b]));
+			int[] sortedTicks = new int[count];
+			short[] sortedLayers = new short[count];
+			long[] sortedNotes = new long[count];
+			int kept = 0;
+			for(int k = 0; k < count; k++) {
+				int i = order[k];
+				if(kept > 0 && sortedTicks[kept - 1] == ticks[i] && sortedLayers[kept - 1] == layers[i]) {
+					kept--;
+				}
+				sortedTicks[kept] = ticks[i];
+				sortedLayers[kept] = layers[i];
+				sortedNotes[kept] = notes[i];
+				kept++;
+			}
+			ticks = sortedTicks;
+			layers = sortedLayers;
+			notes = sortedNotes;
+			count = kept;
+			sorted = true;
+		}
+	}
+
+	/**
+	 * Writes this timeline to a stream, can be read again with {@link #read(ByteBuffer)}
+	 *
+	 * @param out stream
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(tickOffsets.length);
+		for(int offset : tickOffsets) {
+			out.writeInt(offset);
+		}
+		int count = getNoteCount();
+		out.writeInt(count);
+		for(int i = 0; i < count; i++) {
+			out.writeShort(layers[i]);
+		}
+		for(int i = 0; i < count; i++) {
+			out.writeLong(notes[i]);
+		}
+		out.writeInt(layerVolumes.length);
+		out.write(layerVolumes);
+		for(short panning : layerPannings) {
+			out.writeShort(panning);
+		}
+	}
+
+	/**
+	 * Reads a timeline written by {@link #write(DataOutputStream)}, the buffer is advanced past it.
+	 * The timeline has no Song until it is passed to a {@link Song} constructor.
+	 *
+	 * @param buffer big-endian buffer
+	 * @return timeline
+	 * @throws java.nio.BufferUnderflowException if the buffer ends too early
+	 * @throws IllegalArgumentException if a size is negative
+	 */
+	public static CompiledSong read(ByteBuffer buffer) {
+		int[] tickOffsets = new int[checkSize(buffer.getInt())];
+		buffer.asIntBuffer().get(tickOffsets);
+		buffer.position(buffer.position() + tickOffsets.length * Integer.BYTES);
+
+		int count = checkSize(buffer.getInt());
+		short[] layers = readShorts(buffer, count);
+		long[] notes = new long[count];
+		buffer.asLongBuffer().get(notes);
+		buffer.position(buffer.position() + count * Long.BYTES);
+
+		int layerCount = checkSize(buffer.getInt());
+		byte[] layerVolumes = new byte[layerCount];
+		buffer.get(layerVolumes);
+		short[] layerPannings = readShorts(buffer, layerCount);
+
+		if(tickOffsets.length == 0 || tickOffsets[tickOffsets.length - 1] != count) {
+			throw new IllegalArgumentException("Tick offsets do not match note count");
+		}
+		return new CompiledSong(null, tickOffsets, layers, notes, layerVolumes, layerPannings);
+	}
+
+	private static int checkSize(int size) {
+		if(size < 0) {
+			throw new IllegalArgumentException("Negative size " + size);
+		}
+		return size;
+	}
+
+	private static short[] readShorts(ByteBuffer buffer, int count) {
+		short[] values = new short[count];
+		buffer.asShortBuffer().get(values);
+		buffer.position(buffer.position() + count * Short.BYTES);
+		return values;
+	}
+
+	/**
+	 * Attaches a timeline created by {@link #read(ByteBuffer)} to its Song
+	 */
+	void bind(Song song) {
+		if(this.song != null && this.song != song) {
+			throw new IllegalStateException("Timeline already belongs to another song");
+		}
+		this.song = song;
+	}
+
+	/**
+	 * Moves this timeline to a song which replaces the song it was compiled for
+	 */
+	void rebind(Song from, Song to) {
+		if(this.song != null && this.song != from) {
+			throw new IllegalStateException("Timeline already belongs to another song");
+		}
+		this.song = to;
+	}
+
+	/**
+	 * Creates layers with new modifiable notes of this timeline, used by songs created from a timeline
+	 *
+	 * @param names layer names indexed by layer, can be shorter than the number of layers
+	 * @return layers and their index
+	 */
+	HashMap<Integer, Layer> createLayers(String[] names) {
+		HashMap<Integer, Layer> layerHashMap = new HashMap<>();
+		for(int i = 0; i < getNoteCount(); i++) {
+			int layerIndex = layers[i];
+			Layer layer = layerHashMap.get(layerIndex);
+			if(layer == null) {
+				layer = new Layer();
+				layer.setVolume(getLayerVolume(layerIndex));
+				layer.setPanning(getLayerPanning(layerIndex));
+				if(layerIndex < names.length && names[layerIndex] != null) {
+					layer.setName(names[layerIndex]);
+				}
+				layerHashMap.put(layerIndex, layer);
+			}
+		}
+		for(int tick = 0; tick < tickOffsets.length - 1; tick++) {
+			for(int i = tickOffsets[tick]; i < tickOffsets[tick + 1]; i++) {
+				layerHashMap.get((int) layers[i]).setNote(tick, Note.of(notes[i]));
+			}
+		}
+		return layerHashMap;
+	}
+
+	/**
+	 * Gets the Song this timeline was compiled from
+	 *
+	 * @return song
+	 */
+	@Override
+	public Song getSong() {
+		return song;
+	}
+
+	/**
+	 * Gets index of the first note played at a given tick
+	 *
+	 * @param tick tick
+	 * @return note index
+	 */
+	@Override
+	public int getStart(int tick) {
+		if(tick < 0 || tick >= tickOffsets.length - 1) {
+			return 0;
+		}
+		return tickOffsets[tick];
+	}
+
+	/**
+	 * Gets index after the last note played at a given tick
+	 *
+	 * @param tick tick
+	 * @return note index, equal to {@link #getStart(int)} if there is no note at this tick
+	 */
+	@Override
+	public int getEnd(int tick) {
+		if(tick < 0 || tick >= tickOffsets.length - 1) {
+			return 0;
+		}
+		return tickOffsets[tick + 1];
+	}
+
+	/**
+	 * Gets the first tick at or after a given tick which has a note, found by binary search over tick offsets
+	 *
+	 * @param tick tick
+	 * @return tick with a note, -1 if there is no note at or after the given tick
+	 */
+	@Override
+	public int getNextTick(int tick) {
+		tick = Math.max(tick, 0);
+		if(tick >= tickOffsets.length - 1 || tickOffsets[tick] == getNoteCount()) {
+			return -1;
+		}
+		// first tick ending after the start of the given tick
+		int start = tickOffsets[tick];
+		int low = tick;
+		int high = tickOffsets.length - 2;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(tickOffsets[middle + 1] > start) {
+				high = middle;
+			}
+			else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the last tick with a note
+	 *
+	 * @return tick, -1 if there are no notes
+	 */
+	@Override
+	public int getLastTick() {
+		return tickOffsets.length - 2;
+	}
+
+	/**
+	 * Gets number of notes in this timeline
+	 *
+	 * @return note count
+	 */
+	@Override
+	public int getNoteCount() {
+		return layers.length;
+	}
+
+	@Override
+	public int getLayer(int index) {
+		return layers[index];
+	}
+
+	/**
+	 * Gets the note at specified index
+	 *
+	 * @param index note index
+	 * @return packed note
+	 * @see PackedNote
+	 */
+	public long getNote(int index) {
+		return notes[index];
+	}
+
+	@Override
+	public byte getInstrument(int index) {
+		return PackedNote.getInstrument(notes[index]);
+	}
+
+	@Override
+	public byte getKey(int index) {
+		return PackedNote.getKey(notes[index]);
+	}
+
+	@Override
+	public short getPitch(int index) {
+		return PackedNote.getPitch(notes[index]);
+	}
+
+	@Override
+	public byte getVelocity(int index) {
+		return PackedNote.getVelocity(notes[index]);
+	}
+
+	@Override
+	public int getPanning(int index) {
+		return PackedNote.getPanning(notes[index]);
+	}
+
+	@Override
+	public float getSoundPitch(int index, boolean doTranspose) {
+		return doTranspose ? transposedPitches[index] : octavePitches[index];
+	}
+
+	@Override
+	public float getGain(int index) {
+		return gains[index];
+	}
+
+	/**
+	 * Gets the sound of the note at specified index
+	 *
+	 * @param index note index
+	 * @return resolved sound holder
+	 * @see InstrumentSounds
+	 */
+	@Override
+	public Holder<SoundEvent> getSound(int index) {
+		return getSounds()[(int) notes[index] & 0xFF];
+	}
+
+	/**
+	 * Gets instrument id to sound table of this Song, rebuilt when sounds are resolved again
+	 *
+	 * @return table indexed by unsigned instrument id
+	 */
+	public Holder<SoundEvent>[] getSounds() {
+		SoundTable sounds = this.sounds;
+		if(sounds == null || !sounds.isCurrent()) {
+			sounds = SoundTable.of(song);
+			this.sounds = sounds;
+		}
+		return sounds.sounds();
+	}
+
+	/**
+	 * Gets the volume of a layer
+	 *
+	 * @param layer layer index
+	 * @return volume, 100 for unknown layers
+	 */
+	@Override
+	public byte getLayerVolume(int layer) {
+		return layer < layerVolumes.length ? layerVolumes[layer] : 100;
+	}
+
+	/**
+	 * Gets the panning of a layer
+	 *
+	 * @param layer layer index
+	 * @return panning, 100 for unknown layers
+	 */
+	@Override
+	public int getLayerPanning(int layer) {
+		return layer < layerPannings.length ? layerPannings[layer] : 100;
+	}
+}
@@ -24,6 +24,27 @@ public class Note {
 		this.pitch = pitch;
 	}
 
+	/**
+	 * Creates a Note from a packed note
+	 *
+	 * @param packed note packed by {@link PackedNote#pack(byte, byte, byte, int, short)}
+	 * @return new note
+	 */
+	public static Note of(long packed) {
+		return new Note(PackedNote.getInstrument(packed), PackedNote.getKey(packed),
+				PackedNote.getVelocity(packed), PackedNote.getPanning(packed), PackedNote.getPitch(packed));
+	}
+
+	/**
+	 * Packs this note into a single long
+	 *
+	 * @return packed note
+	 * @see PackedNote
+	 */
+	public long pack() {
+		return PackedNote.pack(instrument, key, velocity, panning, pitch);
+	}
+
 	/**
 	 * Gets instrument number
 	 */
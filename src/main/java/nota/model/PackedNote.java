@@ -0,0 +1,46 @@
+package nota.model;
+
+/**
+ * Immutable {@link Note} packed into a single {@code long}.
+ * <p>
+ * Bits 0-7 hold the instrument, 8-15 the key, 16-23 the velocity, 24-39 the panning and 40-55 the pitch.
+ * Notes which are equal have the same packed value, {@link Note#of(long)} unpacks a value into a new Note.
+ */
+public final class PackedNote {
+
+	private PackedNote() {
+	}
+
+	/**
+	 * Packs note values
+	 *
+	 * @return packed note
+	 */
+	public static long pack(byte instrument, byte key, byte velocity, int panning, short pitch) {
+		return (instrument & 0xFFL)
+				| (key & 0xFFL) << 8
+				| (velocity & 0xFFL) << 16
+				| (panning & 0xFFFFL) << 24
+				| (pitch & 0xFFFFL) << 40;
+	}
+
+	public static byte getInstrument(long note) {
+		return (byte) note;
+	}
+
+	public static byte getKey(long note) {
+		return (byte) (note >>> 8);
+	}
+
+	public static byte getVelocity(long note) {
+		return (byte) (note >>> 16);
+	}
+
+	public static int getPanning(long note) {
+		return (short) (note >>> 24);
+	}
+
+	public static short getPitch(long note) {
+		return (short) (note >>> 40);
+	}
+}
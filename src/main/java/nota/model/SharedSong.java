@@ -0,0 +1,49 @@
+package nota.model;
+
+import java.util.HashMap;
+
+/**
+ * Read-only Song shared by everyone who loads the same content, usually created by {@link nota.library.SongCache}.
+ * <p>
+ * {@link #getLayerHashMap()} creates new Layers on every call and does not keep them, so their changes never reach
+ * other users of the song. Use {@link Song#Song(Song)} to create a modifiable copy.
+ */
+public class SharedSong extends Song {
+
+	/**
+	 * Creates a shared song which takes over the compiled timeline of a song
+	 *
+	 * @param song decoded song, must not be used afterwards
+	 */
+	public SharedSong(Song song) {
+		super(song.getSpeed(), null, song.getSongHeight(), song.getLength(), song.getTitle(), song.getAuthor(), song.getOriginalAuthor(),
+				song.getDescription(), song.getPath(), song.getFirstCustomInstrumentIndex(), song.getCustomInstruments(), song.isStereo());
+		this.layerNames = new String[song.getSongHeight()];
+		for(int i = 0; i < layerNames.length; i++) {
+			layerNames[i] = song.getLayerName(i);
+		}
+		CompiledSong compiled = song.getCompiled();
+		compiled.rebind(song, this);
+		this.compiled = compiled;
+	}
+
+	/**
+	 * Gets new Layers of the whole song, changes are not played and not seen by other users of the song
+	 *
+	 * @return HashMap of Layers and their index
+	 */
+	@Override
+	public HashMap<Integer, Layer> getLayerHashMap() {
+		return compiled.createLayers(layerNames);
+	}
+
+	/**
+	 * Always throws, a shared song can't be modified
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void recompile() {
+		throw new UnsupportedOperationException("Shared song can't be modified, copy it with new Song(song)");
+	}
+}
@@ -10,7 +10,8 @@ import java.util.HashMap;
  * Can be parsed from .nbs file with {@link NBSDecoder}
  */
 public class Song implements Cloneable {
-	HashMap<Integer, Layer> layerHashMap;
+	volatile HashMap<Integer, Layer> layerHashMap;
+	String[] layerNames;
 	short songHeight;
 	short length;
 	String title;
@@ -25,6 +26,8 @@ public class Song implements Cloneable {
 	int firstCustomInstrumentIndex;
 	boolean isStereo;
 
+	volatile CompiledSong compiled;
+
 	/**
 	 * Create Song instance by copying other Song parameters
 	 *
@@ -60,15 +63,88 @@ public class Song implements Cloneable {
 		this.isStereo = isStereo;
 	}
 
+	/**
+	 * Create Song instance from an already compiled timeline, Layers are created from the timeline when first requested
+	 *
+	 * @param compiled   timeline, for example read with {@link CompiledSong#read(java.nio.ByteBuffer)}
+	 * @param layerNames names of layers indexed by layer
+	 */
+	public Song(float speed, CompiledSong compiled, String[] layerNames,
+				short songHeight, final short length, String title, String author, String originalAuthor,
+				String description, File path, int firstCustomInstrumentIndex, CustomInstrument[] customInstruments, boolean isStereo) {
+		this(speed, null, songHeight, length, title, author, originalAuthor, description, path, firstCustomInstrumentIndex, customInstruments, isStereo);
+		compiled.bind(this);
+		this.compiled = compiled;
+		this.layerNames = layerNames;
+	}
+
 	/**
 	 * Gets all Layers in this Song and their index
 	 *
 	 * @return HashMap of Layers and their index
 	 */
 	public HashMap<Integer, Layer> getLayerHashMap() {
+		HashMap<Integer, Layer> layerHashMap = this.layerHashMap;
+		if(layerHashMap == null) {
+			synchronized(this) {
+				layerHashMap = this.layerHashMap;
+				if(layerHashMap == null) {
+					layerHashMap = compiled.createLayers(layerNames);
+					this.layerHashMap = layerHashMap;
+					layerNames = null;
+				}
+			}
+		}
 		return layerHashMap;
 	}
 
+	/**
+	 * Gets the name of a layer without creating Layers of a compiled Song
+	 *
+	 * @param layer layer index
+	 * @return name, empty if the layer has no name
+	 */
+	public String getLayerName(int layer) {
+		String[] layerNames = this.layerNames;
+		if(layerNames != null && this.layerHashMap == null) {
+			return layer >= 0 && layer < layerNames.length && layerNames[layer] != null ? layerNames[layer] : "";
+		}
+		Layer found = getLayerHashMap().get(layer);
+		return found != null ? found.getName() : "";
+	}
+
+	/**
+	 * Gets the tick-indexed timeline of this Song used for playback, compiles it on first call
+	 *
+	 * @return compiled timeline
+	 * @see CompiledSong
+	 */
+	public CompiledSong getCompiled() {
+		CompiledSong compiled = this.compiled;
+		if(compiled == null) {
+			compiled = CompiledSong.compile(this);
+			this.compiled = compiled;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Gets the timeline used for playback
+	 *
+	 * @return timeline, the compiled timeline unless the Song is still being decoded
+	 * @see StreamingSong
+	 */
+	public Timeline getTimeline() {
+		return getCompiled();
+	}
+
+	/**
+	 * Compiles the timeline again, has to be called after {@link Layer}s of this Song were modified
+	 */
+	public void recompile() {
+		this.compiled = CompiledSong.compile(this);
+	}
+
 	/**
 	 * Gets the Song's height
 	 *
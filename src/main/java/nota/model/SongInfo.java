@@ -0,0 +1,42 @@
+package nota.model;
+
+import nota.utils.NBSDecoder;
+
+import java.io.File;
+
+/**
+ * Metadata of a Note Block Studio project without its notes.
+ * Can be read from .nbs file with {@link NBSDecoder#scan(File)}, much faster than decoding the whole {@link Song}
+ *
+ * @param path           file from which the song is sourced, can be null
+ * @param title          title / name of the song
+ * @param author         author of the song
+ * @param originalAuthor original author of the song
+ * @param description    description of the song
+ * @param length         length in ticks
+ * @param speed          speed (ticks per second)
+ * @param layerCount     number of layers, the song height
+ */
+public record SongInfo(File path, String title, String author, String originalAuthor, String description,
+					   int length, float speed, int layerCount) {
+
+	/**
+	 * Creates SongInfo of an already decoded Song
+	 *
+	 * @param song song
+	 * @return metadata of the song
+	 */
+	public static SongInfo of(Song song) {
+		return new SongInfo(song.getPath(), song.getTitle(), song.getAuthor(), song.getOriginalAuthor(),
+				song.getDescription(), song.getLength(), song.getSpeed(), song.getSongHeight());
+	}
+
+	/**
+	 * Gets the duration of the song
+	 *
+	 * @return duration in seconds
+	 */
+	public float duration() {
+		return speed > 0 ? length / speed : 0;
+	}
+}
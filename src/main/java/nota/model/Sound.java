@@ -1,14 +1,7 @@
 package nota.model;
 
-import net.minecraft.core.Holder;
-import net.minecraft.core.registries.Registries;
 import net.minecraft.sounds.SoundEvent;
 import net.minecraft.sounds.SoundEvents;
-import nota.Nota;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Version independent Spigot sounds.
@@ -40,7 +33,6 @@ public enum Sound {
 
 	String[] versionDependentNames;
 	SoundEvent cached = null;
-	static Map<String, SoundEvent> cachedSoundMap = new HashMap<>();
 
 	Sound(String... versionDependentNames) {
 		this.versionDependentNames = versionDependentNames;
@@ -72,86 +64,52 @@ public enum Sound {
 	private static SoundEvent getSound(String name) {
 		switch(name) {
 			case "NOTE_PIANO", "BLOCK_NOTE_HARP", "BLOCK_NOTE_BLOCK_HARP" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_HARP);
+				return SoundEvents.NOTE_BLOCK_HARP.value();
 			}
 			case "NOTE_BASS", "BLOCK_NOTE_BASS", "BLOCK_NOTE_BLOCK_BASS" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_BASS);
+				return SoundEvents.NOTE_BLOCK_BASS.value();
 			}
 			case "NOTE_BASS_DRUM", "BLOCK_NOTE_BASEDRUM", "BLOCK_NOTE_BLOCK_BASEDRUM" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_BASEDRUM);
+				return SoundEvents.NOTE_BLOCK_BASEDRUM.value();
 			}
 			case "NOTE_SNARE_DRUM", "BLOCK_NOTE_SNARE", "BLOCK_NOTE_BLOCK_SNARE" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_SNARE);
+				return SoundEvents.NOTE_BLOCK_SNARE.value();
 			}
 			case "NOTE_STICKS", "BLOCK_NOTE_HAT", "BLOCK_NOTE_BLOCK_HAT" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_HAT);
+				return SoundEvents.NOTE_BLOCK_HAT.value();
 			}
 			case "NOTE_BASS_GUITAR", "BLOCK_NOTE_GUITAR", "BLOCK_NOTE_BLOCK_GUITAR" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_GUITAR);
+				return SoundEvents.NOTE_BLOCK_GUITAR.value();
 			}
 			case "NOTE_FLUTE", "BLOCK_NOTE_FLUTE", "BLOCK_NOTE_BLOCK_FLUTE" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_FLUTE);
+				return SoundEvents.NOTE_BLOCK_FLUTE.value();
 			}
 			case "NOTE_BELL", "BLOCK_NOTE_BELL", "BLOCK_NOTE_BLOCK_BELL" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_BELL);
+				return SoundEvents.NOTE_BLOCK_BELL.value();
 			}
 			case "NOTE_XYLOPHONE", "BLOCK_NOTE_XYLOPHONE", "BLOCK_NOTE_BLOCK_XYLOPHONE" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_XYLOPHONE);
+				return SoundEvents.NOTE_BLOCK_XYLOPHONE.value();
 			}
 			case "NOTE_PLING", "BLOCK_NOTE_PLING", "BLOCK_NOTE_BLOCK_PLING" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_PLING);
+				return SoundEvents.NOTE_BLOCK_PLING.value();
 			}
 			case "BLOCK_NOTE_BLOCK_IRON_XYLOPHONE" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_IRON_XYLOPHONE);
+				return SoundEvents.NOTE_BLOCK_IRON_XYLOPHONE.value();
 			}
 			case "BLOCK_NOTE_BLOCK_COW_BELL" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_COW_BELL);
+				return SoundEvents.NOTE_BLOCK_COW_BELL.value();
 			}
 			case "BLOCK_NOTE_BLOCK_DIDGERIDOO" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_DIDGERIDOO);
+				return SoundEvents.NOTE_BLOCK_DIDGERIDOO.value();
 			}
 			case "BLOCK_NOTE_BLOCK_BIT" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_BIT);
+				return SoundEvents.NOTE_BLOCK_BIT.value();
 			}
 			case "BLOCK_NOTE_BLOCK_BANJO" -> {
-				return bullshit(SoundEvents.NOTE_BLOCK_BANJO);
+				return SoundEvents.NOTE_BLOCK_BANJO.value();
 			}
 		}
-		return bullshit(SoundEvents.NOTE_BLOCK_BASS);
-	}
-
-//	private SoundEvent bullshit(Holder.Reference<SoundEvent> reference) {
-//		MinecraftServer server = Nota.getAPI().getServer();
-//		RegistryAccess registryAccess = server.registryAccess();
-//		Registry<SoundEvent> soundEventRegistry = null;
-//
-//		Registry<SoundEvent>[] result = new Registry[1];
-//
-//		registryAccess.registries().forEach(entry -> {
-//			if (entry.key().equals(Registries.SOUND_EVENT)) {
-//				result[0] = (Registry<SoundEvent>) entry.value();
-//			}
-//		});
-//
-//		if (result[0] == null) {
-//			throw new IllegalStateException("SOUND_EVENT registry not found!");
-//		}
-//
-//		Optional<Holder.Reference<SoundEvent>> soundEvent = result[0].get(reference.key());
-//
-//		// weird java magic
-//		return soundEvent.map(Holder.Reference::value).orElseGet(SoundEvents.NOTE_BLOCK_HARP::value);
-//	}
-
-	private static SoundEvent bullshit(Holder.Reference<SoundEvent> reference) {
-		AtomicReference<SoundEvent> result = new AtomicReference<>();
-
-		Nota.getAPI().getServer().registryAccess().registries().forEach(entry -> {
-			if (entry.key() == Registries.SOUND_EVENT)
-				result.set((SoundEvent) entry.value().get(reference.key().location()).get().value());
-		});
-
-		return result.get();
+		return SoundEvents.NOTE_BLOCK_BASS.value();
 	}
 
 	/**
@@ -167,11 +125,4 @@ public enum Sound {
 		}
 		throw new IllegalArgumentException("Found no valid sound name for " + this.name());
 	}
-
-	static {
-		// Cache sound access.
-		for(Sound sound : values())
-			for(String soundName : sound.versionDependentNames)
-				cachedSoundMap.put(soundName.toUpperCase(), sound.getSound());
-	}
 }
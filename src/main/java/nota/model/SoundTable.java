@@ -0,0 +1,31 @@
+package nota.model;
+
+import net.minecraft.core.Holder;
+import net.minecraft.sounds.SoundEvent;
+import nota.utils.InstrumentSounds;
+
+/**
+ * Instrument id to sound table of a song with the {@link InstrumentSounds#getGeneration()} it was resolved in.
+ * Timelines publish both in one volatile field, a thread never sees a table with the generation of another.
+ *
+ * @param generation generation the sounds were resolved in
+ * @param sounds     table indexed by unsigned instrument id
+ */
+record SoundTable(int generation, Holder<SoundEvent>[] sounds) {
+
+	/**
+	 * Returns true if sounds were not resolved again since this table was built
+	 */
+	boolean isCurrent() {
+		return generation == InstrumentSounds.getGeneration();
+	}
+
+	/**
+	 * Builds the table of a song from the current sounds
+	 */
+	static SoundTable of(Song song) {
+		// read first, sounds resolved meanwhile leave the table outdated instead of wrongly current
+		int generation = InstrumentSounds.getGeneration();
+		return new SoundTable(generation, InstrumentSounds.forSong(song));
+	}
+}
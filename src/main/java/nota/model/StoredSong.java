@@ -0,0 +1,109 @@
+package nota.model;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Song whose notes are kept delta-encoded outside of the Java heap, usually created by {@link nota.library.SongStore}.
+ * <p>
+ * Only metadata and layer names stay on the heap. While the song is played, notes are decoded into a small window
+ * of a few hundred ticks around the played position, the window can be collected when memory runs low.
+ * <p>
+ * The whole timeline is only decoded onto the heap for {@link #getCompiled()} and {@link #getLayerHashMap()},
+ * the copy is kept until memory runs low. Stored notes can't be changed, edits of the Layers are not played.
+ */
+public class StoredSong extends Song {
+	private final ByteBuffer data;
+	private volatile SoftReference<StoredTimeline> timeline = new SoftReference<>(null);
+	private volatile SoftReference<CompiledSong> decoded = new SoftReference<>(null);
+	private volatile SoftReference<HashMap<Integer, Layer>> layers = new SoftReference<>(null);
+
+	/**
+	 * Creates a stored copy of a song
+	 *
+	 * @param song song to copy metadata and layer names from
+	 * @param data timeline of the song encoded by {@link #encode(CompiledSong)}, must not be modified afterwards
+	 */
+	public StoredSong(Song song, ByteBuffer data) {
+		super(song.getSpeed(), null, song.getSongHeight(), song.getLength(), song.getTitle(), song.getAuthor(), song.getOriginalAuthor(),
+				song.getDescription(), song.getPath(), song.getFirstCustomInstrumentIndex(), song.getCustomInstruments(), song.isStereo());
+		this.data = data;
+		this.layerNames = new String[song.getSongHeight()];
+		for(int i = 0; i < layerNames.length; i++) {
+			layerNames[i] = song.getLayerName(i);
+		}
+	}
+
+	/**
+	 * Delta-encodes a timeline into the form read by {@link StoredSong}
+	 *
+	 * @param compiled timeline
+	 * @return encoded timeline
+	 */
+	public static byte[] encode(CompiledSong compiled) {
+		return StoredTimeline.encode(compiled);
+	}
+
+	/**
+	 * Gets the timeline of this Song, decoding only the blocks which are played
+	 *
+	 * @return windowed timeline
+	 */
+	@Override
+	public Timeline getTimeline() {
+		StoredTimeline timeline = this.timeline.get();
+		if(timeline == null) {
+			timeline = new StoredTimeline(this, data);
+			this.timeline = new SoftReference<>(timeline);
+		}
+		return timeline;
+	}
+
+	/**
+	 * Gets the whole timeline decoded onto the heap, decoded again only after memory ran low
+	 *
+	 * @return compiled timeline
+	 */
+	@Override
+	public CompiledSong getCompiled() {
+		CompiledSong compiled = this.decoded.get();
+		if(compiled == null) {
+			compiled = new StoredTimeline(this, data).decodeAll();
+			this.decoded = new SoftReference<>(compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Gets Layers of the whole song, kept while they are referenced. Changes are not played,
+	 * use {@link Song#Song(Song)} to create a modifiable copy
+	 *
+	 * @return HashMap of Layers and their index
+	 */
+	@Override
+	public HashMap<Integer, Layer> getLayerHashMap() {
+		HashMap<Integer, Layer> layerHashMap = this.layers.get();
+		if(layerHashMap == null) {
+			layerHashMap = getCompiled().createLayers(layerNames);
+			this.layers = new SoftReference<>(layerHashMap);
+		}
+		return layerHashMap;
+	}
+
+	/**
+	 * Does nothing, the stored timeline can't change
+	 */
+	@Override
+	public void recompile() {
+	}
+
+	/**
+	 * Gets number of bytes used by the encoded timeline outside of the heap
+	 *
+	 * @return size in bytes
+	 */
+	public int getStoredSize() {
+		return data.capacity();
+	}
+}
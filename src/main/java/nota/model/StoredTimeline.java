@@ -0,0 +1,375 @@
+package nota.model;
+
+import net.minecraft.core.Holder;
+import net.minecraft.sounds.SoundEvent;
+import nota.utils.NoteUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Timeline of a {@link StoredSong}, decoded block by block from its delta-encoded form into a small window.
+ * <p>
+ * The encoded timeline is split into blocks of {@link #BLOCK_TICKS} ticks. Each note is stored as
+ * the tick distance to the previous note, the layer (distance to the previous layer within a tick),
+ * a flags byte, instrument and key, followed by velocity, panning and pitch only if they differ from the default.
+ * Note indices are the same as in the {@link CompiledSong} the timeline was encoded from.
+ * <p>
+ * Blocks are immutable, so players of the same song on different threads can share the window.
+ */
+final class StoredTimeline implements Timeline {
+	static final int BLOCK_TICKS = 256;
+	private static final int WINDOW_BLOCKS = 4;
+
+	private static final int VELOCITY = 1;
+	private static final int PANNING = 2;
+	private static final int PITCH = 4;
+
+	private final Song song;
+	private final ByteBuffer data;
+	private final int noteCount;
+	private final int lastTick;
+	private final int blockCount;
+	private final int blockTable;
+	private final byte[] layerVolumes;
+	private final short[] layerPannings;
+
+	// replaced round-robin, a reader holding an evicted block can still use it
+	private final Block[] window = new Block[WINDOW_BLOCKS];
+	private int nextSlot = 0;
+
+	private volatile SoundTable sounds;
+
+	StoredTimeline(Song song, ByteBuffer data) {
+		this.song = song;
+		this.data = data;
+		this.noteCount = data.getInt(0);
+		this.lastTick = data.getInt(4);
+		this.blockCount = data.getInt(8);
+		int layerCount = data.getShort(12) & 0xFFFF;
+		this.layerVolumes = new byte[layerCount];
+		this.layerPannings = new short[layerCount];
+		int position = 14;
+		for(int i = 0; i < layerCount; i++) {
+			layerVolumes[i] = data.get(position);
+			layerPannings[i] = data.getShort(position + 1);
+			position += 3;
+		}
+		this.blockTable = position;
+	}
+
+	/**
+	 * Delta-encodes a compiled timeline
+	 */
+	static byte[] encode(CompiledSong compiled) {
+		int lastTick = compiled.getLastTick();
+		int blockCount = lastTick < 0 ? 0 : lastTick / BLOCK_TICKS + 1;
+		int layerCount = 0;
+		for(int i = 0; i < compiled.getNoteCount(); i++) {
+			layerCount = Math.max(layerCount, compiled.getLayer(i) + 1);
+		}
+
+		ByteArrayOutputStream notes = new ByteArrayOutputStream(compiled.getNoteCount() * 5);
+		int[] blockOffsets = new int[blockCount];
+		int[] blockStarts = new int[blockCount];
+		for(int block = 0; block < blockCount; block++) {
+			blockOffsets[block] = notes.size();
+			int firstTick = block * BLOCK_TICKS;
+			blockStarts[block] = compiled.getStart(firstTick);
+			int previousTick = firstTick;
+			int previousLayer = -1;
+			for(int tick = firstTick; tick < firstTick + BLOCK_TICKS && tick <= lastTick; tick++) {
+				for(int i = compiled.getStart(tick); i < compiled.getEnd(tick); i++) {
+					int layer = compiled.getLayer(i);
+					if(tick != previousTick) {
+						previousLayer = -1;
+					}
+					writeVarInt(notes, tick - previousTick);
+					writeVarInt(notes, layer - previousLayer - 1);
+					previousTick = tick;
+					previousLayer = layer;
+
+					long note = compiled.getNote(i);
+					byte velocity = PackedNote.getVelocity(note);
+					int panning = PackedNote.getPanning(note);
+					short pitch = PackedNote.getPitch(note);
+					int flags = (velocity != 100 ? VELOCITY : 0) | (panning != 100 ? PANNING : 0) | (pitch != 0 ? PITCH : 0);
+					notes.write(flags);
+					notes.write(PackedNote.getInstrument(note));
+					notes.write(PackedNote.getKey(note));
+					if((flags & VELOCITY) != 0) {
+						notes.write(velocity);
+					}
+					if((flags & PANNING) != 0) {
+						notes.write(panning >> 8);
+						notes.write(panning);
+					}
+					if((flags & PITCH) != 0) {
+						notes.write(pitch >> 8);
+						notes.write(pitch);
+					}
+				}
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(14 + layerCount * 3 + blockCount * 8 + notes.size());
+		try(DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(compiled.getNoteCount());
+			out.writeInt(lastTick);
+			out.writeInt(blockCount);
+			out.writeShort(layerCount);
+			for(int layer = 0; layer < layerCount; layer++) {
+				out.writeByte(compiled.getLayerVolume(layer));
+				out.writeShort(compiled.getLayerPanning(layer));
+			}
+			int notesStart = 14 + layerCount * 3 + blockCount * 8;
+			for(int block = 0; block < blockCount; block++) {
+				out.writeInt(notesStart + blockOffsets[block]);
+				out.writeInt(blockStarts[block]);
+			}
+			notes.writeTo(out);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes the whole timeline onto the heap
+	 */
+	CompiledSong decodeAll() {
+		int[] tickOffsets = new int[lastTick + 2];
+		short[] layers = new short[noteCount];
+		long[] notes = new long[noteCount];
+		for(int b = 0; b < blockCount; b++) {
+			Block block = decode(b);
+			System.arraycopy(block.layers, 0, layers, block.base, block.layers.length);
+			System.arraycopy(block.notes, 0, notes, block.base, block.notes.length);
+			for(int tick = block.firstTick; tick < block.firstTick + BLOCK_TICKS && tick <= lastTick; tick++) {
+				tickOffsets[tick + 1] = block.base + block.offsets[tick - block.firstTick + 1];
+			}
+		}
+		return new CompiledSong(song, tickOffsets, layers, notes, layerVolumes, layerPannings);
+	}
+
+	private Block getBlockAtTick(int tick) {
+		int number = tick / BLOCK_TICKS;
+		for(Block block : window) {
+			if(block != null && block.number == number) {
+				return block;
+			}
+		}
+		return load(number);
+	}
+
+	private Block getBlock(int index) {
+		for(Block block : window) {
+			if(block != null && index >= block.base && index < block.base + block.notes.length) {
+				return block;
+			}
+		}
+		// last block starting at or before the index
+		int low = 0;
+		int high = blockCount - 1;
+		while(low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if(data.getInt(blockTable + middle * 8 + 4) <= index) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return load(low);
+	}
+
+	private Block load(int number) {
+		Block block = decode(number);
+		synchronized(window) {
+			window[nextSlot] = block;
+			nextSlot = (nextSlot + 1) % WINDOW_BLOCKS;
+		}
+		return block;
+	}
+
+	private Block decode(int number) {
+		ByteBuffer buffer = data.duplicate();
+		buffer.position(data.getInt(blockTable + number * 8));
+		int base = data.getInt(blockTable + number * 8 + 4);
+		int end = number + 1 < blockCount ? data.getInt(blockTable + (number + 1) * 8 + 4) : noteCount;
+		int firstTick = number * BLOCK_TICKS;
+
+		int count = end - base;
+		int[] offsets = new int[BLOCK_TICKS + 1];
+		short[] layers = new short[count];
+		long[] notes = new long[count];
+		int tick = firstTick;
+		int layer = -1;
+		for(int i = 0; i < count; i++) {
+			int tickDelta = readVarInt(buffer);
+			if(tickDelta != 0) {
+				for(int t = tick - firstTick + 1; t <= tick + tickDelta - firstTick; t++) {
+					offsets[t] = i;
+				}
+				tick += tickDelta;
+				layer = -1;
+			}
+			layer += readVarInt(buffer) + 1;
+			int flags = buffer.get();
+			byte instrument = buffer.get();
+			byte key = buffer.get();
+			byte velocity = (flags & VELOCITY) != 0 ? buffer.get() : 100;
+			int panning = (flags & PANNING) != 0 ? buffer.getShort() : 100;
+			short pitch = (flags & PITCH) != 0 ? buffer.getShort() : 0;
+			layers[i] = (short) layer;
+			notes[i] = PackedNote.pack(instrument, key, velocity, panning, pitch);
+		}
+		for(int t = tick - firstTick + 1; t <= BLOCK_TICKS; t++) {
+			offsets[t] = count;
+		}
+
+		float[] transposedPitches = new float[count];
+		float[] octavePitches = new float[count];
+		float[] gains = new float[count];
+		for(int i = 0; i < count; i++) {
+			long note = notes[i];
+			transposedPitches[i] = NoteUtils.getPitchTransposed(PackedNote.getKey(note), PackedNote.getPitch(note));
+			octavePitches[i] = NoteUtils.getPitchInOctave(PackedNote.getKey(note), PackedNote.getPitch(note));
+			gains[i] = CompiledSong.getGain(getLayerVolume(layers[i]), PackedNote.getVelocity(note));
+		}
+		return new Block(number, firstTick, base, offsets, layers, notes, transposedPitches, octavePitches, gains);
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte read;
+		do {
+			read = buffer.get();
+			value |= (read & 0x7F) << shift;
+			shift += 7;
+		}
+		while(read < 0);
+		return value;
+	}
+
+	@Override
+	public Song getSong() {
+		return song;
+	}
+
+	@Override
+	public int getStart(int tick) {
+		if(tick < 0 || tick > lastTick) {
+			return 0;
+		}
+		Block block = getBlockAtTick(tick);
+		return block.base + block.offsets[tick - block.firstTick];
+	}
+
+	@Override
+	public int getEnd(int tick) {
+		if(tick < 0 || tick > lastTick) {
+			return 0;
+		}
+		Block block = getBlockAtTick(tick);
+		return block.base + block.offsets[tick - block.firstTick + 1];
+	}
+
+	@Override
+	public int getLastTick() {
+		return lastTick;
+	}
+
+	@Override
+	public int getNoteCount() {
+		return noteCount;
+	}
+
+	@Override
+	public int getLayer(int index) {
+		Block block = getBlock(index);
+		return block.layers[index - block.base];
+	}
+
+	@Override
+	public byte getInstrument(int index) {
+		Block block = getBlock(index);
+		return PackedNote.getInstrument(block.notes[index - block.base]);
+	}
+
+	@Override
+	public byte getKey(int index) {
+		Block block = getBlock(index);
+		return PackedNote.getKey(block.notes[index - block.base]);
+	}
+
+	@Override
+	public short getPitch(int index) {
+		Block block = getBlock(index);
+		return PackedNote.getPitch(block.notes[index - block.base]);
+	}
+
+	@Override
+	public byte getVelocity(int index) {
+		Block block = getBlock(index);
+		return PackedNote.getVelocity(block.notes[index - block.base]);
+	}
+
+	@Override
+	public int getPanning(int index) {
+		Block block = getBlock(index);
+		return PackedNote.getPanning(block.notes[index - block.base]);
+	}
+
+	@Override
+	public float getSoundPitch(int index, boolean doTranspose) {
+		Block block = getBlock(index);
+		return doTranspose ? block.transposedPitches[index - block.base] : block.octavePitches[index - block.base];
+	}
+
+	@Override
+	public float getGain(int index) {
+		Block block = getBlock(index);
+		return block.gains[index - block.base];
+	}
+
+	@Override
+	public Holder<SoundEvent> getSound(int index) {
+		SoundTable sounds = this.sounds;
+		if(sounds == null || !sounds.isCurrent()) {
+			sounds = SoundTable.of(song);
+			this.sounds = sounds;
+		}
+		return sounds.sounds()[getInstrument(index) & 0xFF];
+	}
+
+	@Override
+	public byte getLayerVolume(int layer) {
+		return layer < layerVolumes.length ? layerVolumes[layer] : 100;
+	}
+
+	@Override
+	public int getLayerPanning(int layer) {
+		return layer < layerPannings.length ? layerPannings[layer] : 100;
+	}
+
+	/**
+	 * Decoded notes of {@link #BLOCK_TICKS} ticks, offsets are relative to the first note of the block
+	 */
+	private record Block(int number, int firstTick, int base, int[] offsets, short[] layers, long[] notes,
+						 float[] transposedPitches, float[] octavePitches, float[] gains) {
+	}
+}
@@ -0,0 +1,146 @@
+package nota.model;
+
+import nota.utils.NBSDecoder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Song which is still being decoded, created by {@link NBSDecoder#stream(File, java.util.concurrent.Executor)}.
+ * <p>
+ * Notes are published tick by tick into a growing {@link Timeline}, so a SongPlayer can start as soon as the first
+ * ticks are decoded. Playback waits whenever it reaches a tick which is not decoded yet.
+ * Until the layer section at the end of the file is decoded, layers have volume and panning 100
+ * and custom instruments are played as harp.
+ * <p>
+ * {@link #getLayerHashMap()} and {@link #getCompiled()} block until the whole song is decoded.
+ */
+public class StreamingSong extends Song {
+	private final StreamingTimeline timeline;
+	private final CompletableFuture<Song> completion = new CompletableFuture<>();
+
+	public StreamingSong(float speed, short songHeight, short length, String title, String author, String originalAuthor,
+						 String description, File path, int firstCustomInstrumentIndex) {
+		super(speed, null, songHeight, length, title, author, originalAuthor, description, path, firstCustomInstrumentIndex, new CustomInstrument[0], false);
+		this.timeline = new StreamingTimeline(this, length);
+	}
+
+	@Override
+	public Timeline getTimeline() {
+		CompiledSong compiled = this.compiled;
+		return compiled != null ? compiled : timeline;
+	}
+
+	@Override
+	public CompiledSong getCompiled() {
+		awaitDecoded();
+		return super.getCompiled();
+	}
+
+	@Override
+	public HashMap<Integer, Layer> getLayerHashMap() {
+		awaitDecoded();
+		return super.getLayerHashMap();
+	}
+
+	/**
+	 * Gets the length in ticks of this Song, at least the decoded part while the length is not known
+	 *
+	 * @return length of this Song
+	 */
+	@Override
+	public short getLength() {
+		if(compiled == null) {
+			return (short) Math.max(length, timeline.getDecodedTick() + 1);
+		}
+		return length;
+	}
+
+	/**
+	 * Returns true once all notes and layers are decoded
+	 *
+	 * @return if decoding finished
+	 */
+	public boolean isComplete() {
+		return compiled != null;
+	}
+
+	/**
+	 * Returns future completed once decoding finished, completed exceptionally if the file is corrupted.
+	 * Notes decoded before the error are kept and can be played.
+	 *
+	 * @return future of this song
+	 */
+	public CompletableFuture<Song> whenComplete() {
+		return completion;
+	}
+
+	private void awaitDecoded() {
+		completion.handle((song, error) -> null).join();
+	}
+
+	/**
+	 * Appends a decoded note, ticks and layers must not decrease. Called by the decoder.
+	 */
+	public void addNote(int tick, int layer, byte instrument, byte key, byte velocity, int panning, short pitch) {
+		timeline.add(tick, layer, instrument, key, velocity, panning, pitch);
+	}
+
+	/**
+	 * Makes all ticks up to the given tick playable. Called by the decoder.
+	 *
+	 * @param tick last decoded tick
+	 */
+	public void publish(int tick) {
+		timeline.publish(tick);
+	}
+
+	/**
+	 * Sets decoded layers, replacing the default volume and panning. Called by the decoder.
+	 *
+	 * @param names    layer names indexed by layer
+	 * @param volumes  layer volumes indexed by layer
+	 * @param pannings layer pannings indexed by layer
+	 */
+	public void setLayers(String[] names, byte[] volumes, short[] pannings) {
+		this.layerNames = names;
+		timeline.setLayers(volumes, pannings);
+	}
+
+	/**
+	 * Finishes decoding. Called by the decoder.
+	 *
+	 * @param length                     length in ticks
+	 * @param customInstruments          custom instruments
+	 * @param firstCustomInstrumentIndex index of the first custom instrument
+	 * @param isStereo                   if the song has a stereo note or layer
+	 */
+	public void complete(short length, CustomInstrument[] customInstruments, int firstCustomInstrumentIndex, boolean isStereo) {
+		this.length = length;
+		this.customInstruments = customInstruments;
+		this.firstCustomInstrumentIndex = firstCustomInstrumentIndex;
+		this.isStereo = isStereo;
+		finish();
+		completion.complete(this);
+	}
+
+	/**
+	 * Stops decoding after an error, notes decoded so far stay playable. Called by the decoder.
+	 *
+	 * @param error cause
+	 */
+	public void fail(Throwable error) {
+		this.length = (short) Math.max(length, timeline.getDecodedTick());
+		finish();
+		completion.completeExceptionally(error);
+	}
+
+	private void finish() {
+		if(layerNames == null) {
+			layerNames = new String[0];
+		}
+		CompiledSong compiled = timeline.toCompiled(this);
+		this.compiled = compiled;
+	}
+}
@@ -0,0 +1,224 @@
+package nota.model;
+
+import net.minecraft.core.Holder;
+import net.minecraft.sounds.SoundEvent;
+import nota.utils.NoteUtils;
+
+import java.util.Arrays;
+
+/**
+ * Growing timeline of a {@link StreamingSong}, written by one decoding thread and read by players.
+ * <p>
+ * Notes are appended in tick and layer order. A tick is published once all of its notes are appended,
+ * readers only see published ticks. Arrays are replaced when they grow, the replacement is published
+ * before the ticks written into it.
+ */
+final class StreamingTimeline implements Timeline {
+	private static final byte[] EMPTY_BYTES = new byte[0];
+	private static final short[] EMPTY_SHORTS = new short[0];
+
+	private final Song song;
+	private volatile Columns columns;
+	private volatile int decodedTick = -1;
+	private volatile byte[] layerVolumes = EMPTY_BYTES;
+	private volatile short[] layerPannings = EMPTY_SHORTS;
+
+	private volatile SoundTable sounds;
+
+	// decoder state
+	private int count = 0;
+	private int filledOffsets = 0;
+
+	StreamingTimeline(Song song, int expectedTicks) {
+		this.song = song;
+		this.columns = new Columns(Math.max(16, expectedTicks + 2), 1024);
+	}
+
+	/**
+	 * Appends a note, ticks and layers must not decrease
+	 */
+	void add(int tick, int layer, byte instrument, byte key, byte velocity, int panning, short pitch) {
+		Columns columns = fillOffsets(tick);
+		if(count == columns.layers.length) {
+			columns = columns.grow(columns.tickOffsets.length, count * 2);
+			this.columns = columns;
+		}
+		columns.layers[count] = (short) layer;
+		columns.notes[count] = PackedNote.pack(instrument, key, velocity, panning, pitch);
+		columns.transposedPitches[count] = NoteUtils.getPitchTransposed(key, pitch);
+		columns.octavePitches[count] = NoteUtils.getPitchInOctave(key, pitch);
+		count++;
+	}
+
+	/**
+	 * Makes notes of all ticks up to the given tick visible to readers
+	 */
+	void publish(int tick) {
+		fillOffsets(tick + 1);
+		decodedTick = tick;
+	}
+
+	void setLayers(byte[] volumes, short[] pannings) {
+		this.layerPannings = pannings;
+		this.layerVolumes = volumes;
+	}
+
+	/**
+	 * Creates a compiled timeline of all published notes
+	 */
+	CompiledSong toCompiled(Song song) {
+		Columns columns = this.columns;
+		int ticks = decodedTick + 2;
+		int notes = ticks > 1 ? columns.tickOffsets[ticks - 1] : 0;
+		return new CompiledSong(song, Arrays.copyOf(columns.tickOffsets, Math.max(ticks, 1)),
+				Arrays.copyOf(columns.layers, notes), Arrays.copyOf(columns.notes, notes), layerVolumes, layerPannings);
+	}
+
+	/**
+	 * Writes start offsets of all ticks up to the given one
+	 */
+	private Columns fillOffsets(int tick) {
+		Columns columns = this.columns;
+		if(tick >= columns.tickOffsets.length) {
+			columns = columns.grow(Math.max(tick + 1, columns.tickOffsets.length * 2), columns.layers.length);
+			this.columns = columns;
+		}
+		while(filledOffsets <= tick) {
+			columns.tickOffsets[filledOffsets++] = count;
+		}
+		return columns;
+	}
+
+	int getDecodedTick() {
+		return decodedTick;
+	}
+
+	@Override
+	public Song getSong() {
+		return song;
+	}
+
+	@Override
+	public int getStart(int tick) {
+		if(tick < 0 || tick > decodedTick) {
+			return 0;
+		}
+		return columns.tickOffsets[tick];
+	}
+
+	@Override
+	public int getEnd(int tick) {
+		if(tick < 0 || tick > decodedTick) {
+			return 0;
+		}
+		return columns.tickOffsets[tick + 1];
+	}
+
+	@Override
+	public int getLastTick() {
+		return decodedTick;
+	}
+
+	@Override
+	public int getNoteCount() {
+		int tick = decodedTick;
+		return tick < 0 ? 0 : columns.tickOffsets[tick + 1];
+	}
+
+	@Override
+	public boolean isAvailable(int tick) {
+		return tick <= decodedTick;
+	}
+
+	@Override
+	public int getLayer(int index) {
+		return columns.layers[index];
+	}
+
+	@Override
+	public byte getInstrument(int index) {
+		return PackedNote.getInstrument(columns.notes[index]);
+	}
+
+	@Override
+	public byte getKey(int index) {
+		return PackedNote.getKey(columns.notes[index]);
+	}
+
+	@Override
+	public short getPitch(int index) {
+		return PackedNote.getPitch(columns.notes[index]);
+	}
+
+	@Override
+	public byte getVelocity(int index) {
+		return PackedNote.getVelocity(columns.notes[index]);
+	}
+
+	@Override
+	public int getPanning(int index) {
+		return PackedNote.getPanning(columns.notes[index]);
+	}
+
+	@Override
+	public float getSoundPitch(int index, boolean doTranspose) {
+		Columns columns = this.columns;
+		return doTranspose ? columns.transposedPitches[index] : columns.octavePitches[index];
+	}
+
+	/**
+	 * Gets volume factor of a note, computed on every call as the layer volume may not be decoded yet
+	 */
+	@Override
+	public float getGain(int index) {
+		Columns columns = this.columns;
+		return CompiledSong.getGain(getLayerVolume(columns.layers[index]), PackedNote.getVelocity(columns.notes[index]));
+	}
+
+	@Override
+	public Holder<SoundEvent> getSound(int index) {
+		SoundTable sounds = this.sounds;
+		if(sounds == null || !sounds.isCurrent()) {
+			sounds = SoundTable.of(song);
+			this.sounds = sounds;
+		}
+		return sounds.sounds()[(int) columns.notes[index] & 0xFF];
+	}
+
+	@Override
+	public byte getLayerVolume(int layer) {
+		byte[] layerVolumes = this.layerVolumes;
+		return layer < layerVolumes.length ? layerVolumes[layer] : 100;
+	}
+
+	@Override
+	public int getLayerPanning(int layer) {
+		short[] layerPannings = this.layerPannings;
+		return layer < layerPannings.length ? layerPannings[layer] : 100;
+	}
+
+	private static final class Columns {
+		final int[] tickOffsets;
+		final short[] layers;
+		final long[] notes;
+		final float[] transposedPitches;
+		final float[] octavePitches;
+
+		Columns(int ticks, int notes) {
+			this(new int[ticks], new short[notes], new long[notes], new float[notes], new float[notes]);
+		}
+
+		Columns(int[] tickOffsets, short[] layers, long[] notes, float[] transposedPitches, float[] octavePitches) {
+			this.tickOffsets = tickOffsets;
+			this.layers = layers;
+			this.notes = notes;
+			this.transposedPitches = transposedPitches;
+			this.octavePitches = octavePitches;
+		}
+
+		Columns grow(int ticks, int notes) {
+			return new Columns(Arrays.copyOf(tickOffsets, ticks), Arrays.copyOf(layers, notes), Arrays.copyOf(this.notes, notes),
+					Arrays.copyOf(transposedPitches, notes), Arrays.copyOf(octavePitches, notes));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package nota.model;
+
+import net.minecraft.core.Holder;
+import net.minecraft.sounds.SoundEvent;
+
+/**
+ * Tick-indexed notes of a {@link Song} used for playback.
+ * <p>
+ * Notes of a tick occupy the contiguous index range {@link #getStart(int)} (inclusive) to {@link #getEnd(int)} (exclusive),
+ * sorted by layer.
+ *
+ * @see CompiledSong
+ * @see StreamingSong
+ */
+public interface Timeline {
+
+	/**
+	 * Gets the Song of this timeline
+	 *
+	 * @return song
+	 */
+	Song getSong();
+
+	/**
+	 * Gets index of the first note played at a given tick
+	 *
+	 * @param tick tick
+	 * @return note index
+	 */
+	int getStart(int tick);
+
+	/**
+	 * Gets index after the last note played at a given tick
+	 *
+	 * @param tick tick
+	 * @return note index, equal to {@link #getStart(int)} if there is no note at this tick
+	 */
+	int getEnd(int tick);
+
+	/**
+	 * Gets the last tick with a note
+	 *
+	 * @return tick, -1 if there are no notes
+	 */
+	int getLastTick();
+
+	/**
+	 * Gets number of notes in this timeline
+	 *
+	 * @return note count
+	 */
+	int getNoteCount();
+
+	/**
+	 * Gets the first tick at or after a given tick which has a note
+	 *
+	 * @param tick tick
+	 * @return tick with a note, -1 if no known tick at or after the given one has a note
+	 */
+	default int getNextTick(int tick) {
+		int lastTick = getLastTick();
+		for(int next = Math.max(tick, 0); next <= lastTick; next++) {
+			if(getStart(next) != getEnd(next)) {
+				return next;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if notes of a tick are known, false if they were not decoded yet
+	 *
+	 * @param tick tick
+	 * @return if the tick can be played
+	 */
+	default boolean isAvailable(int tick) {
+		return true;
+	}
+
+	int getLayer(int index);
+
+	byte getInstrument(int index);
+
+	byte getKey(int index);
+
+	short getPitch(int index);
+
+	byte getVelocity(int index);
+
+	int getPanning(int index);
+
+	/**
+	 * Gets the pitch of the sound played for the note at specified index
+	 *
+	 * @param index       note index
+	 * @param doTranspose true to transpose the key into the Minecraft range, false to use the 10-octave range
+	 * @return sound pitch
+	 */
+	float getSoundPitch(int index, boolean doTranspose);
+
+	/**
+	 * Gets the volume factor of the note at specified index, layer volume multiplied by velocity
+	 *
+	 * @param index note index
+	 * @return gain, 1 at full volume
+	 */
+	float getGain(int index);
+
+	/**
+	 * Gets the sound of the note at specified index
+	 *
+	 * @param index note index
+	 * @return resolved sound holder
+	 */
+	Holder<SoundEvent> getSound(int index);
+
+	/**
+	 * Gets the volume of a layer
+	 *
+	 * @param layer layer index
+	 * @return volume, 100 for unknown layers
+	 */
+	byte getLayerVolume(int layer);
+
+	/**
+	 * Gets the panning of a layer
+	 *
+	 * @param layer layer index
+	 * @return panning, 100 for unknown layers
+	 */
+	int getLayerPanning(int layer);
+}
@@ -1,10 +1,13 @@
 package nota.model.playmode;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
 import net.minecraft.server.level.ServerPlayer;
 import nota.model.Layer;
 import nota.model.Note;
 import nota.model.Song;
+import nota.model.Timeline;
 
 /**
  * Decides how is {@link Note} played to {@link PlayerEntity}
@@ -12,4 +15,35 @@ import nota.model.Song;
 public abstract class ChannelMode {
 
 	public abstract void play(ServerPlayer player, BlockPos pos, Song song, Layer layer, Note note, float volume, boolean doTranspose);
+
+	/**
+	 * Plays note at specified index of a {@link Timeline}.
+	 * Falls back to {@link #play(ServerPlayer, BlockPos, Song, Layer, Note, float, boolean)} unless overridden.
+	 */
+	public void play(ServerPlayer player, BlockPos pos, Timeline song, int index, float volume, boolean doTranspose) {
+		// a detached layer, building the Layers of the whole song for every tick would undo the packed timeline
+		Layer layer = new Layer();
+		layer.setVolume(song.getLayerVolume(song.getLayer(index)));
+		layer.setPanning(song.getLayerPanning(song.getLayer(index)));
+		Note note = new Note(song.getInstrument(index), song.getKey(index), song.getVelocity(index), song.getPanning(index), song.getPitch(index));
+		play(player, pos, song.getSong(), layer, note, volume, doTranspose);
+	}
+
+	/**
+	 * Queues note at specified index of a {@link Timeline} into a {@link SoundBatch} sent at the end of the tick.
+	 * Plays the note immediately unless overridden.
+	 */
+	public void play(SoundBatch batch, ServerPlayer player, BlockPos pos, Timeline song, int index, float volume, boolean doTranspose) {
+		play(player, pos, song, index, volume, doTranspose);
+	}
+
+	/**
+	 * Creates a packet playing note at specified index of a {@link Timeline} at a given position.
+	 * Packet does not depend on the receiving player, so it can be shared by all players at that position.
+	 *
+	 * @return packet, or null if this mode can't create player independent packets
+	 */
+	public Packet<? super ClientGamePacketListener> createPacket(double x, double y, double z, Timeline song, int index, float volume, boolean doTranspose) {
+		return null;
+	}
 }
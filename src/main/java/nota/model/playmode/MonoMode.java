@@ -1,14 +1,18 @@
 package nota.model.playmode;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.network.protocol.game.ClientboundSoundPacket;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.sounds.SoundSource;
 import nota.model.Layer;
 import nota.model.Note;
 import nota.model.Song;
+import nota.model.Timeline;
 import nota.utils.InstrumentUtils;
 import nota.utils.NoteUtils;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * {@link Note} is played inside of {@link ServerPlayer}'s head.
  */
@@ -24,4 +28,20 @@ public class MonoMode extends ChannelMode {
 		}
 		player.playNotifySound(InstrumentUtils.getInstrument(note.getInstrument()), SoundSource.RECORDS, volume, pitch);
 	}
+
+	@Override
+	public void play(ServerPlayer player, BlockPos pos, Timeline song, int index, float volume, boolean doTranspose) {
+		player.connection.send(createPacket(player.getX(), player.getY(), player.getZ(), song, index, volume, doTranspose));
+	}
+
+	@Override
+	public void play(SoundBatch batch, ServerPlayer player, BlockPos pos, Timeline song, int index, float volume, boolean doTranspose) {
+		batch.add(player, createPacket(player.getX(), player.getY(), player.getZ(), song, index, volume, doTranspose));
+	}
+
+	@Override
+	public ClientboundSoundPacket createPacket(double x, double y, double z, Timeline song, int index, float volume, boolean doTranspose) {
+		return new ClientboundSoundPacket(song.getSound(index), SoundSource.RECORDS, x, y, z, volume,
+				song.getSoundPitch(index, doTranspose), ThreadLocalRandom.current().nextLong());
+	}
 }
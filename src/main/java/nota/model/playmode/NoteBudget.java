@@ -0,0 +1,116 @@
+package nota.model.playmode;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts packets sent to each player in the current server tick, shared by the {@link SoundBatch}es
+ * of all schedulers so a player never receives more than the limit per server tick.
+ * <p>
+ * Within one flush packets with the lowest priority are dropped first. When a scheduler flushes
+ * several times in one server tick, earlier flushes use up the allowance of the later ones.
+ */
+public class NoteBudget {
+	private volatile int limit = 0;
+	private volatile long tick = 0;
+
+	private final Map<UUID, Usage> usage = new ConcurrentHashMap<>();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Gets maximum number of packets sent to a player per server tick
+	 *
+	 * @return limit, 0 if unlimited
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets maximum number of packets sent to a player per server tick
+	 *
+	 * @param limit limit, 0 for unlimited
+	 */
+	public void setLimit(int limit) {
+		this.limit = Math.max(0, limit);
+	}
+
+	/**
+	 * Starts a new server tick with the full allowance for every player, called on the server thread
+	 */
+	public void nextTick() {
+		tick++;
+	}
+
+	/**
+	 * Takes packets from the allowance of a player in the current server tick
+	 *
+	 * @param playerUuid player's uuid
+	 * @param requested  number of queued packets
+	 * @return number of packets which may be sent, the rest are counted as dropped
+	 */
+	int take(UUID playerUuid, int requested) {
+		int limit = this.limit;
+		if(limit == 0) {
+			return requested;
+		}
+		Usage used = usage.computeIfAbsent(playerUuid, uuid -> new Usage());
+		int granted;
+		synchronized(used) {
+			long tick = this.tick;
+			if(used.tick != tick) {
+				used.tick = tick;
+				used.sent = 0;
+			}
+			granted = Math.min(requested, Math.max(0, limit - used.sent));
+			used.sent += granted;
+			used.dropped += requested - granted;
+		}
+		if(granted < requested) {
+			dropped.addAndGet(requested - granted);
+		}
+		return granted;
+	}
+
+	/**
+	 * Gets number of packets dropped over the limit since this budget was created
+	 *
+	 * @return dropped packets
+	 */
+	public long getDroppedNotes() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets number of packets of a player dropped over the limit
+	 *
+	 * @param playerUuid player's uuid
+	 * @return dropped packets since the player joined
+	 */
+	public long getDroppedNotes(UUID playerUuid) {
+		Usage used = usage.get(playerUuid);
+		if(used == null) {
+			return 0;
+		}
+		synchronized(used) {
+			return used.dropped;
+		}
+	}
+
+	/**
+	 * Forgets the allowance and dropped packet counter of a player
+	 *
+	 * @param playerUuid player's uuid
+	 */
+	public void remove(UUID playerUuid) {
+		usage.remove(playerUuid);
+	}
+
+	private static final class Usage {
+		long tick = -1;
+		int sent;
+		long dropped;
+	}
+}
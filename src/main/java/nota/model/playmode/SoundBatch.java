@@ -0,0 +1,183 @@
+package nota.model.playmode;
+
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects sound packets of one tick for each {@link ServerPlayer}
+ * and sends them as a single {@link ClientboundBundlePacket} per player.
+ * <p>
+ * Every {@link nota.player.SongScheduler} owns one batch and flushes it after each tick,
+ * so the batch must only be used from the scheduler thread.
+ * <p>
+ * With a limit set on its {@link NoteBudget}, a player receives at most that many packets per server tick
+ * across all SongPlayers and schedulers sharing the budget.
+ * Packets over it are dropped by priority, lowest first, see {@link #setPriority(float)}.
+ */
+public class SoundBatch {
+	/**
+	 * Maximum number of packets the client accepts in a single bundle
+	 */
+	public static final int BUNDLE_LIMIT = 4096;
+	/**
+	 * Priority of packets queued without one, they are dropped last
+	 */
+	public static final float DEFAULT_PRIORITY = Float.MAX_VALUE;
+
+	private final Map<ServerPlayer, Queued> packets = new IdentityHashMap<>();
+	private final NoteBudget budget;
+	private float priority = DEFAULT_PRIORITY;
+
+	public SoundBatch() {
+		this(new NoteBudget());
+	}
+
+	/**
+	 * @param budget budget shared with batches of other schedulers
+	 */
+	public SoundBatch(NoteBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Queues a packet for a player until {@link #flush()} with the priority set by {@link #setPriority(float)}
+	 *
+	 * @param player receiving player
+	 * @param packet packet
+	 */
+	public void add(ServerPlayer player, Packet<? super ClientGamePacketListener> packet) {
+		add(player, packet, priority);
+	}
+
+	/**
+	 * Queues a packet for a player until {@link #flush()}
+	 *
+	 * @param player   receiving player
+	 * @param packet   packet
+	 * @param priority priority used when the player receives more packets than the budget, usually the loudness of the note
+	 */
+	public void add(ServerPlayer player, Packet<? super ClientGamePacketListener> packet, float priority) {
+		packets.computeIfAbsent(player, p -> new Queued()).add(packet, priority);
+	}
+
+	/**
+	 * Sets priority of packets queued by {@link #add(ServerPlayer, Packet)} until changed,
+	 * lets {@link ChannelMode} queue notes without knowing their priority
+	 *
+	 * @param priority priority, {@link #DEFAULT_PRIORITY} to never drop before other packets
+	 */
+	public void setPriority(float priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Gets maximum number of packets sent to a player per server tick
+	 *
+	 * @return limit of the budget, 0 if unlimited
+	 */
+	public int getBudget() {
+		return budget.getLimit();
+	}
+
+	/**
+	 * Gets the budget limiting packets per player and server tick
+	 *
+	 * @return budget
+	 */
+	public NoteBudget getNoteBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns true if no packet is queued
+	 *
+	 * @return is empty
+	 */
+	public boolean isEmpty() {
+		return packets.isEmpty();
+	}
+
+	/**
+	 * Sends all queued packets, one bundle per player
+	 */
+	public void flush() {
+		if(packets.isEmpty()) {
+			return;
+		}
+		for(Map.Entry<ServerPlayer, Queued> entry : packets.entrySet()) {
+			Queued queued = entry.getValue();
+			int size = queued.packets.size();
+			int granted = budget.take(entry.getKey().getUUID(), size);
+			if(granted == size) {
+				send(entry.getKey(), queued.packets);
+			}
+			else if(granted > 0) {
+				send(entry.getKey(), queued.keep(granted));
+			}
+		}
+		packets.clear();
+		priority = DEFAULT_PRIORITY;
+	}
+
+	private static void send(ServerPlayer player, List<Packet<? super ClientGamePacketListener>> queued) {
+		if(player.connection == null) {
+			return;
+		}
+		if(queued.size() == 1) {
+			player.connection.send(queued.get(0));
+			return;
+		}
+		// bundle keeps the list until it is encoded, so it must not be reused
+		for(int from = 0; from < queued.size(); from += BUNDLE_LIMIT) {
+			int to = Math.min(queued.size(), from + BUNDLE_LIMIT);
+			player.connection.send(new ClientboundBundlePacket(from == 0 && to == queued.size() ? queued : new ArrayList<>(queued.subList(from, to))));
+		}
+	}
+
+	private static final class Queued {
+		final ArrayList<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>();
+		float[] priorities = new float[16];
+
+		void add(Packet<? super ClientGamePacketListener> packet, float priority) {
+			int index = packets.size();
+			if(index == priorities.length) {
+				priorities = Arrays.copyOf(priorities, index * 2);
+			}
+			priorities[index] = priority;
+			packets.add(packet);
+		}
+
+		/**
+		 * Keeps packets with the highest priority in their queued order, ties are kept in queued order
+		 */
+		List<Packet<? super ClientGamePacketListener>> keep(int budget) {
+			int size = packets.size();
+			float[] sorted = Arrays.copyOf(priorities, size);
+			Arrays.sort(sorted);
+			float threshold = sorted[size - budget];
+			int above = 0;
+			for(int i = size - budget; i < size; i++) {
+				if(sorted[i] > threshold) {
+					above++;
+				}
+			}
+			int ties = budget - above;
+			ArrayList<Packet<? super ClientGamePacketListener>> kept = new ArrayList<>(budget);
+			for(int i = 0; i < size; i++) {
+				float priority = priorities[i];
+				if(priority > threshold || priority == threshold && ties-- > 0) {
+					kept.add(packets.get(i));
+				}
+			}
+			return kept;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package nota.player;
+
+import nota.Nota;
+import nota.model.playmode.NoteBudget;
+import nota.model.playmode.SoundBatch;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * High resolution {@link SongScheduler} running on its own clock thread.
+ * <p>
+ * Unlike {@link PlaybackScheduler} ticks are not aligned to the server tick, every SongPlayer
+ * is fired at its exact fractional period measured with {@link System#nanoTime()}.
+ * Deadlines are computed from an anchor as {@code anchor + n * period}, so rounding never
+ * accumulates and tempo does not drift over hours of playback.
+ * <p>
+ * Pending deadlines are kept in a hashed timing wheel with {@link #RESOLUTION} wide slots,
+ * so the clock thread only touches SongPlayers which are due. Due SongPlayers are handed
+ * through a lock-free queue to a single sender thread which plays the ticks
+ * and flushes the {@link SoundBatch} after each run of due ticks.
+ * <p>
+ * Ticks without notes are counted off by the clock thread without waking the sender
+ * when the SongPlayer allows it, see {@link SongPlayer#setTickEvents(boolean)}.
+ * <p>
+ * Ticks are played off the server thread. {@link RangeSongPlayer}s decide range from entity and player state
+ * owned by the server thread, so they stay on {@link PlaybackScheduler}. {@link RadioSongPlayer}s only read
+ * the position of each listener to play the sound at, a position from the last server tick is harmless there.
+ */
+public class AudioClock implements SongScheduler {
+	/**
+	 * Width of one wheel slot in nanoseconds, upper bound of the scheduling jitter
+	 */
+	public static final long RESOLUTION = 1_000_000L;
+	private static final int WHEEL_SIZE = 1024;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	/**
+	 * How often paused SongPlayers are checked for being resumed
+	 */
+	private static final long IDLE_POLL = 10_000_000L;
+
+	private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+	private final Queue<Due> due = new ConcurrentLinkedQueue<>();
+	private final Entry[] wheel = new Entry[WHEEL_SIZE];
+	private final SoundBatch batch;
+
+	private final Thread clockThread;
+	private final Thread senderThread;
+	private volatile boolean running = false;
+	private volatile boolean clearRequested = false;
+	private volatile int count = 0;
+
+	private long startNanos;
+	private long wheelTick = 0;
+
+	public AudioClock() {
+		this(new NoteBudget());
+	}
+
+	/**
+	 * @param budget note budget shared with other schedulers
+	 */
+	public AudioClock(NoteBudget budget) {
+		this.batch = new SoundBatch(budget);
+		this.clockThread = new Thread(this::runClock, "Nota Audio Clock");
+		this.clockThread.setDaemon(true);
+		this.clockThread.setPriority(Thread.MAX_PRIORITY);
+		this.senderThread = new Thread(this::runSender, "Nota Audio Sender");
+		this.senderThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts clock and sender threads
+	 */
+	public void start() {
+		if(running) {
+			return;
+		}
+		running = true;
+		startNanos = System.nanoTime();
+		clockThread.start();
+		senderThread.start();
+	}
+
+	/**
+	 * Stops clock and sender threads
+	 */
+	public void stop() {
+		running = false;
+		LockSupport.unpark(clockThread);
+		LockSupport.unpark(senderThread);
+	}
+
+	@Override
+	public void register(SongPlayer songPlayer) {
+		pending.add(new Entry(songPlayer));
+	}
+
+	@Override
+	public int getCount() {
+		return count + pending.size();
+	}
+
+	@Override
+	public SoundBatch getBatch() {
+		return batch;
+	}
+
+	@Override
+	public void clear() {
+		clearRequested = true;
+	}
+
+	private void runClock() {
+		while(running) {
+			if(clearRequested) {
+				clearRequested = false;
+				pending.clear();
+				due.clear();
+				Arrays.fill(wheel, null);
+				count = 0;
+			}
+
+			long now = System.nanoTime();
+			Entry added;
+			while((added = pending.poll()) != null) {
+				added.idle = true;
+				added.deadline = now;
+				schedule(added);
+				count++;
+			}
+
+			long target = (now - startNanos) / RESOLUTION;
+			boolean fired = false;
+			while(wheelTick <= target) {
+				fired |= expire(now);
+				wheelTick++;
+			}
+			if(fired) {
+				LockSupport.unpark(senderThread);
+			}
+
+			long sleep = startNanos + wheelTick * RESOLUTION - System.nanoTime();
+			if(sleep > 0) {
+				LockSupport.parkNanos(this, sleep);
+			}
+		}
+	}
+
+	/**
+	 * Fires all entries of the current slot whose deadline has passed
+	 *
+	 * @return whether anything was handed to the sender
+	 */
+	private boolean expire(long now) {
+		int slot = (int) (wheelTick & WHEEL_MASK);
+		Entry entry = wheel[slot];
+		wheel[slot] = null;
+		boolean fired = false;
+		while(entry != null) {
+			Entry next = entry.next;
+			entry.next = null;
+			if(entry.deadlineTick() > wheelTick) {
+				// due in a later revolution of the wheel
+				entry.next = wheel[slot];
+				wheel[slot] = entry;
+			}
+			else if(entry.songPlayer.isDestroyed()) {
+				count--;
+			}
+			else {
+				fired |= fire(entry, now);
+				schedule(entry);
+			}
+			entry = next;
+		}
+		return fired;
+	}
+
+	private boolean fire(Entry entry, long now) {
+		SongPlayer songPlayer = entry.songPlayer;
+		if(!songPlayer.isPlaying()) {
+			entry.idle = true;
+			entry.deadline = now + IDLE_POLL;
+			if(songPlayer.hasCommands()) {
+				// queued changes are applied by the sender thread
+				handOff(entry);
+				return true;
+			}
+			return false;
+		}
+		double period = songPlayer.getSong().getDelay() * 50_000_000.0;
+		if(entry.idle) {
+			entry.idle = false;
+			entry.anchor = now;
+			entry.period = period;
+			entry.count = 0;
+		}
+		else if(period != entry.period) {
+			// tempo changed, keep the current deadline as the new anchor
+			entry.anchor = entry.deadline;
+			entry.period = period;
+			entry.count = 0;
+		}
+		long silence = entry.silence;
+		boolean skip = (int) (silence >>> 32) == entry.handoffs && entry.skipped < (int) silence && !songPlayer.hasCommands();
+		if(skip) {
+			// silent tick, the sender plays the skipped ticks off before the next audible one
+			entry.skipped++;
+		}
+		else {
+			handOff(entry);
+		}
+		entry.count++;
+		entry.deadline = entry.anchor + (long) (entry.count * entry.period);
+		return !skip;
+	}
+
+	private void handOff(Entry entry) {
+		entry.handoffs++;
+		due.add(new Due(entry, entry.skipped, entry.handoffs));
+		entry.skipped = 0;
+	}
+
+	private void schedule(Entry entry) {
+		long tick = Math.max(entry.deadlineTick(), wheelTick + 1);
+		int slot = (int) (tick & WHEEL_MASK);
+		entry.next = wheel[slot];
+		wheel[slot] = entry;
+	}
+
+	private void runSender() {
+		while(running) {
+			Due due;
+			while((due = this.due.poll()) != null) {
+				SongPlayer songPlayer = due.entry().songPlayer;
+				try {
+					if(!songPlayer.isDestroyed()) {
+						songPlayer.skip(due.skipped());
+						songPlayer.tick();
+						// silent ticks are only trusted by the clock for the latest hand-off
+						due.entry().silence = (long) due.handoff() << 32 | songPlayer.getSilentTicks();
+					}
+				}
+				catch(Exception e) {
+					Nota.LOGGER.error("Failed to play tick of {}", songPlayer.getId(), e);
+					// the clock drops destroyed players
+					songPlayer.abort();
+				}
+			}
+			batch.flush();
+			LockSupport.park(this);
+		}
+	}
+
+	private class Entry {
+		final SongPlayer songPlayer;
+		Entry next;
+		boolean idle;
+		long anchor;
+		long count;
+		double period;
+		long deadline;
+		// owned by the clock thread
+		int handoffs;
+		int skipped;
+		// written by the sender thread, hand-off number in the high and silent ticks in the low half
+		volatile long silence;
+
+		Entry(SongPlayer songPlayer) {
+			this.songPlayer = songPlayer;
+		}
+
+		long deadlineTick() {
+			return (deadline - startNanos + RESOLUTION - 1) / RESOLUTION;
+		}
+	}
+
+	private record Due(Entry entry, int skipped, int handoff) {
+	}
+}
@@ -0,0 +1,206 @@
+package nota.player;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Spatial index of {@link RangeSongPlayer}s with automatic audience, keyed by chunk section in each level.
+ * <p>
+ * Every server tick each player of a level only looks at emitters in the sections around it,
+ * so finding who can hear what costs O(players * nearby emitters) instead of O(emitters * players).
+ * Players that come in range are added to the RangeSongPlayer and removed again once they leave.
+ *
+ * @see RangeSongPlayer#setAutoAudience(boolean)
+ */
+public class EmitterIndex {
+	private final Queue<RangeSongPlayer> pending = new ConcurrentLinkedQueue<>();
+	private final Map<Level, LevelIndex> levels = new IdentityHashMap<>();
+	private final ArrayList<RangeSongPlayer> emitters = new ArrayList<>();
+	private long updateCount = 0;
+
+	/**
+	 * Adds a RangeSongPlayer to the index, can be called from any thread.
+	 * It is dropped again once destroyed or when automatic audience is disabled.
+	 *
+	 * @param emitter range song player
+	 */
+	public void add(RangeSongPlayer emitter) {
+		pending.add(emitter);
+	}
+
+	/**
+	 * Gets number of indexed RangeSongPlayers
+	 *
+	 * @return number of emitters
+	 */
+	public int getCount() {
+		return emitters.size();
+	}
+
+	/**
+	 * Moves emitters to their current sections and updates their audience, called on the server thread
+	 */
+	public void update() {
+		RangeSongPlayer added;
+		while((added = pending.poll()) != null) {
+			if(!emitters.contains(added)) {
+				emitters.add(added);
+			}
+		}
+		if(emitters.isEmpty()) {
+			return;
+		}
+		updateCount++;
+
+		for(Iterator<RangeSongPlayer> iterator = emitters.iterator(); iterator.hasNext(); ) {
+			RangeSongPlayer emitter = iterator.next();
+			Level level = emitter.isDestroyed() || !emitter.getAutoAudience() ? null : emitter.getLevel();
+			Vec3 source = level == null ? null : emitter.getSourcePosition();
+			if(source == null) {
+				unindex(emitter);
+				if(emitter.isDestroyed() || !emitter.getAutoAudience()) {
+					iterator.remove();
+					if(!emitter.isDestroyed()) {
+						emitter.dropLeftAudience(-1);
+					}
+				}
+				continue;
+			}
+			long section = SectionPos.asLong(
+					SectionPos.blockToSectionCoord((int) Math.floor(source.x())),
+					SectionPos.blockToSectionCoord((int) Math.floor(source.y())),
+					SectionPos.blockToSectionCoord((int) Math.floor(source.z())));
+			if(emitter.indexedLevel != level || emitter.indexedSection != section) {
+				unindex(emitter);
+				levels.computeIfAbsent(level, l -> new LevelIndex()).add(section, emitter);
+				emitter.indexedLevel = level;
+				emitter.indexedSection = section;
+			}
+		}
+
+		for(Iterator<Map.Entry<Level, LevelIndex>> iterator = levels.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<Level, LevelIndex> entry = iterator.next();
+			LevelIndex index = entry.getValue();
+			if(index.count == 0) {
+				iterator.remove();
+				continue;
+			}
+			if(entry.getKey() instanceof ServerLevel serverLevel) {
+				index.collect(serverLevel, updateCount);
+			}
+		}
+
+		for(RangeSongPlayer emitter : emitters) {
+			if(emitter.indexedLevel != null) {
+				emitter.dropLeftAudience(updateCount);
+			}
+		}
+	}
+
+	/**
+	 * Drops all emitters, used when the server is stopping
+	 */
+	public void clear() {
+		pending.clear();
+		for(RangeSongPlayer emitter : emitters) {
+			emitter.indexedLevel = null;
+		}
+		emitters.clear();
+		levels.clear();
+	}
+
+	private void unindex(RangeSongPlayer emitter) {
+		if(emitter.indexedLevel == null) {
+			return;
+		}
+		LevelIndex index = levels.get(emitter.indexedLevel);
+		if(index != null) {
+			index.remove(emitter.indexedSection, emitter);
+		}
+		emitter.indexedLevel = null;
+	}
+
+	private static class LevelIndex {
+		final Long2ObjectOpenHashMap<ArrayList<RangeSongPlayer>> sections = new Long2ObjectOpenHashMap<>();
+		int count = 0;
+		int radius = 0;
+
+		void add(long section, RangeSongPlayer emitter) {
+			sections.computeIfAbsent(section, s -> new ArrayList<>()).add(emitter);
+			count++;
+		}
+
+		void remove(long section, RangeSongPlayer emitter) {
+			ArrayList<RangeSongPlayer> emitters = sections.get(section);
+			if(emitters != null && emitters.remove(emitter)) {
+				count--;
+				if(emitters.isEmpty()) {
+					sections.remove(section);
+				}
+			}
+		}
+
+		/**
+		 * Marks every player of the level as audience of the emitters it is in range of
+		 */
+		void collect(ServerLevel level, long updateCount) {
+			radius = 0;
+			for(ArrayList<RangeSongPlayer> emitters : sections.values()) {
+				for(RangeSongPlayer emitter : emitters) {
+					radius = Math.max(radius, (emitter.getDistance() + 15) >> 4);
+				}
+			}
+
+			// a single emitter with a large range would make the cube around every player huge
+			long side = 2L * radius + 1;
+			boolean scanCube = side * side * side <= sections.size();
+			for(ServerPlayer player : level.players()) {
+				int x = SectionPos.blockToSectionCoord(player.blockPosition().getX());
+				int y = SectionPos.blockToSectionCoord(player.blockPosition().getY());
+				int z = SectionPos.blockToSectionCoord(player.blockPosition().getZ());
+				if(scanCube) {
+					for(int dx = -radius; dx <= radius; dx++) {
+						for(int dy = -radius; dy <= radius; dy++) {
+							for(int dz = -radius; dz <= radius; dz++) {
+								ArrayList<RangeSongPlayer> emitters = sections.get(SectionPos.asLong(x + dx, y + dy, z + dz));
+								if(emitters != null) {
+									mark(player, emitters, updateCount);
+								}
+							}
+						}
+					}
+					continue;
+				}
+				for(Long2ObjectMap.Entry<ArrayList<RangeSongPlayer>> entry : sections.long2ObjectEntrySet()) {
+					long section = entry.getLongKey();
+					int distance = Math.max(Math.abs(SectionPos.x(section) - x),
+							Math.max(Math.abs(SectionPos.y(section) - y), Math.abs(SectionPos.z(section) - z)));
+					if(distance <= radius) {
+						mark(player, entry.getValue(), updateCount);
+					}
+				}
+			}
+		}
+
+		private static void mark(ServerPlayer player, ArrayList<RangeSongPlayer> emitters, long updateCount) {
+			for(int i = 0; i < emitters.size(); i++) {
+				RangeSongPlayer emitter = emitters.get(i);
+				if(emitter.isInRange(player)) {
+					emitter.markAudience(player, player.getUUID(), updateCount);
+				}
+			}
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package nota.player;
 
+import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
-import nota.Nota;
-import nota.model.Layer;
-import nota.model.Note;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
 import nota.model.Playlist;
 import nota.model.Song;
+import nota.model.Timeline;
+import nota.model.playmode.SoundBatch;
 
 @SuppressWarnings("unused")
 public class EntitySongPlayer extends RangeSongPlayer {
@@ -29,7 +31,7 @@ public class EntitySongPlayer extends RangeSongPlayer {
 	 */
 	@Override
 	public boolean isInRange(ServerPlayer player) {
-		return player.blockPosition().distManhattan(entity.blockPosition()) <= getDistance();
+		return entity != null && player.blockPosition().distManhattan(entity.blockPosition()) <= getDistance();
 	}
 
 	/**
@@ -51,7 +53,20 @@ public class EntitySongPlayer extends RangeSongPlayer {
 	}
 
 	@Override
-	public void playTick(ServerPlayer player, int tick) {
+	protected Level getLevel() {
+		return entity != null ? entity.level() : null;
+	}
+
+	@Override
+	protected Vec3 getSourcePosition() {
+		return entity != null ? entity.position() : null;
+	}
+
+	@Override
+	protected boolean prepareTick() {
+		if(entity == null) {
+			return false; // nothing to play from yet
+		}
 		if(!entity.isAlive()) {
 			if(autoDestroy) {
 				destroy();
@@ -59,27 +74,22 @@ public class EntitySongPlayer extends RangeSongPlayer {
 			else {
 				setPlaying(false);
 			}
+			return false;
 		}
-		if (!player.level().registryAccess().equals(entity.level().registryAccess())) {
-			return; // not in same world
-		}
-
-		byte playerVolume = Nota.getPlayerVolume(player);
-
-		for(Layer layer : song.getLayerHashMap().values()) {
-			Note note = layer.getNote(tick);
-			if(note == null) continue;
+		return true;
+	}
 
-			float volume = ((layer.getVolume() * (int) this.volume * (int) playerVolume * note.getVelocity()) / 100_00_00_00F)
-					* ((1F / 16F) * getDistance());
+	@Override
+	protected void playNotes(ServerPlayer player, byte playerVolume, double distance,
+							 Timeline timeline, int start, int end, SoundBatch batch) {
+		BlockPos pos = entity.blockPosition();
+		float baseVolume = ((int) this.volume * (int) playerVolume) / 100_00F;
+		float listenerVolume = baseVolume * ((1F / 16F) * getDistance());
+		float attenuation = getAttenuation(distance);
+		for(int i = start; i < end; i++) {
+			float volume = timeline.getGain(i) * listenerVolume;
 
-			if(isInRange(player)) {
-				playerList.put(player.getUUID(), true);
-				channelMode.play(player, entity.blockPosition(), song, layer, note, volume, !enable10Octave);
-			}
-			else {
-				playerList.put(player.getUUID(), false);
-			}
+			playNote(batch, player, pos, timeline, i, volume, timeline.getGain(i) * baseVolume * attenuation);
 		}
 	}
 }
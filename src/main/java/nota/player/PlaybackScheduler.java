@@ -0,0 +1,137 @@
+package nota.player;
+
+import net.minecraft.server.MinecraftServer;
+import nota.Nota;
+import nota.model.playmode.NoteBudget;
+import nota.model.playmode.SoundBatch;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Advances every {@link SongPlayer} from the server tick.
+ * <p>
+ * Songs are not bound to the 20 ticks per second of the server, so each player keeps
+ * a fractional accumulator of song ticks owed to it. Every server tick adds
+ * {@code 1 / song delay} to it and plays as many whole song ticks as are due.
+ * Ticks without notes are counted off without being played when the SongPlayer allows it,
+ * see {@link SongPlayer#setTickEvents(boolean)}.
+ */
+public class PlaybackScheduler implements SongScheduler {
+	private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+	private final ArrayList<Entry> active = new ArrayList<>();
+	private final SoundBatch batch;
+
+	public PlaybackScheduler() {
+		this(new NoteBudget());
+	}
+
+	/**
+	 * @param budget note budget shared with other schedulers
+	 */
+	public PlaybackScheduler(NoteBudget budget) {
+		this.batch = new SoundBatch(budget);
+	}
+
+	@Override
+	public void register(SongPlayer songPlayer) {
+		pending.add(new Entry(songPlayer));
+	}
+
+	@Override
+	public int getCount() {
+		return active.size() + pending.size();
+	}
+
+	/**
+	 * Advances all SongPlayers by one server tick, called on the server thread
+	 *
+	 * @param server running server
+	 */
+	public void tick(MinecraftServer server) {
+		Entry added;
+		while((added = pending.poll()) != null) {
+			active.add(added);
+		}
+
+		for(int i = 0; i < active.size(); i++) {
+			Entry entry = active.get(i);
+			try {
+				if(entry.advance()) {
+					continue;
+				}
+			}
+			catch(Exception e) {
+				// a failing SongPlayer must not take the server tick down with it
+				Nota.LOGGER.error("Failed to play tick of {}", entry.songPlayer.getId(), e);
+				entry.songPlayer.abort();
+			}
+			// reap destroyed and failed players, order of the rest does not matter
+			Entry last = active.remove(active.size() - 1);
+			if(i < active.size()) {
+				active.set(i, last);
+			}
+			i--;
+		}
+		batch.flush();
+	}
+
+	@Override
+	public SoundBatch getBatch() {
+		return batch;
+	}
+
+	@Override
+	public void clear() {
+		pending.clear();
+		active.clear();
+	}
+
+	private static class Entry {
+		final SongPlayer songPlayer;
+		double accumulator = 0;
+		// following ticks known to be silent, reset whenever queued changes are applied
+		int silent = 0;
+
+		Entry(SongPlayer songPlayer) {
+			this.songPlayer = songPlayer;
+		}
+
+		/**
+		 * @return false when the SongPlayer was destroyed and should be removed
+		 */
+		boolean advance() {
+			if(songPlayer.update()) {
+				silent = 0;
+			}
+			if(songPlayer.isDestroyed()) {
+				return false;
+			}
+			if(!songPlayer.isPlaying()) {
+				accumulator = 0;
+				return true;
+			}
+			// delay is the number of server ticks per song tick
+			accumulator += 1.0 / songPlayer.getSong().getDelay();
+			int skipped = 0;
+			while(accumulator >= 1.0 && songPlayer.isPlaying()) {
+				accumulator -= 1.0;
+				if(silent > 0) {
+					silent--;
+					skipped++;
+					continue;
+				}
+				songPlayer.skip(skipped);
+				skipped = 0;
+				songPlayer.tick();
+				if(songPlayer.isDestroyed()) {
+					return false;
+				}
+				silent = songPlayer.getSilentTicks();
+			}
+			songPlayer.skip(skipped);
+			return true;
+		}
+	}
+}
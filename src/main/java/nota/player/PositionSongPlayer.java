@@ -3,11 +3,12 @@ package nota.player;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
-import nota.Nota;
-import nota.model.Layer;
-import nota.model.Note;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
 import nota.model.Playlist;
 import nota.model.Song;
+import nota.model.Timeline;
+import nota.model.playmode.SoundBatch;
 
 /**
  * SongPlayer created at a specified BlockPos
@@ -43,31 +44,27 @@ public class PositionSongPlayer extends RangeSongPlayer {
 	}
 
 	@Override
-	public void playTick(ServerPlayer player, int tick) {
-		if(!player.level().registryAccess().equals(world.registryAccess())) {
-			return; // not in same world
-		}
-
-		byte playerVolume = Nota.getPlayerVolume(player);
-
-		for(Layer layer : song.getLayerHashMap().values()) {
-			Note note = layer.getNote(tick);
-			if(note == null) continue;
+	protected Level getLevel() {
+		return world;
+	}
 
-			double dist = player.position().distanceTo(this.pos.getCenter());
+	@Override
+	protected Vec3 getSourcePosition() {
+		return pos != null ? pos.getCenter() : null;
+	}
 
-			float vol = 1 / (float) (((layer.getVolume() * (int) this.volume * (int) playerVolume * note.getVelocity()) / 100_00_00_00F)
-								* ((1F / 16F) * dist));
+	@Override
+	protected void playNotes(ServerPlayer player, byte playerVolume, double distance,
+							 Timeline timeline, int start, int end, SoundBatch batch) {
+		float baseVolume = ((int) this.volume * (int) playerVolume) / 100_00F;
+		float listenerVolume = (float) (baseVolume * ((1F / 16F) * distance));
+		float attenuation = getAttenuation(distance);
+		for(int i = start; i < end; i++) {
+			float vol = 1 / (timeline.getGain(i) * listenerVolume);
 
 			vol /= 10;
 
-			if(isInRange(player)) {
-				this.playerList.put(player.getUUID(), true);
-				this.channelMode.play(player, pos, song, layer, note, vol, !enable10Octave);
-			}
-			else {
-				this.playerList.put(player.getUUID(), false);
-			}
+			playNote(batch, player, pos, timeline, i, vol, timeline.getGain(i) * baseVolume * attenuation);
 		}
 	}
 
@@ -79,6 +76,6 @@ public class PositionSongPlayer extends RangeSongPlayer {
 	 */
 	@Override
 	public boolean isInRange(ServerPlayer player) {
-		return player.blockPosition().distManhattan(pos) <= getDistance();
+		return pos != null && player.blockPosition().distManhattan(pos) <= getDistance();
 	}
 }
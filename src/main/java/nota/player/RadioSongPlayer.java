@@ -1,18 +1,30 @@
 package nota.player;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
 import net.minecraft.server.level.ServerPlayer;
 
 import nota.Nota;
-import nota.model.Layer;
-import nota.model.Note;
 import nota.model.Playlist;
 import nota.model.Song;
+import nota.model.Timeline;
+import nota.model.playmode.SoundBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * SongPlayer playing to everyone added to it no matter where they are
  */
 public class RadioSongPlayer extends SongPlayer {
+	private boolean sharedPackets = false;
+
+	// groups are reused between ticks, the probe looks up a group without allocating a key
+	private final HashMap<SharedGroup, SharedGroup> groups = new HashMap<>();
+	private final ArrayList<SharedGroup> groupPool = new ArrayList<>();
+	private final SharedGroup probe = new SharedGroup();
+	private final ArrayList<Packet<? super ClientGamePacketListener>> sharedTick = new ArrayList<>();
 
 	public RadioSongPlayer(Song song) {
 		super(song);
@@ -22,19 +34,153 @@ public class RadioSongPlayer extends SongPlayer {
 		super(playlist);
 	}
 
+	/**
+	 * Returns whether packets of a tick are shared between players
+	 *
+	 * @return if shared packets are enabled
+	 */
+	public boolean isSharedPackets() {
+		return sharedPackets;
+	}
+
+	/**
+	 * Enable or disable shared packets.
+	 * <p>
+	 * If enabled, players are grouped by their effective volume and the block they are in,
+	 * packets of each tick are created once per group and the same instances are sent to every player of the group.
+	 * Sound of a group is played at the center of the block instead of the exact player position.
+	 * Players alone in their group are played to as if shared packets were disabled.
+	 * Has no effect if {@link nota.model.playmode.ChannelMode} can't create shared packets.
+	 *
+	 * @param sharedPackets true if enabled, false otherwise
+	 */
+	public void setSharedPackets(boolean sharedPackets) {
+		this.sharedPackets = sharedPackets;
+	}
+
 	@Override
-	public void playTick(ServerPlayer player, int tick) {
-		byte playerVolume = Nota.getPlayerVolume(player);
+	protected void playTick(int tick) {
+		if(!sharedPackets) {
+			super.playTick(tick);
+			return;
+		}
 
-		for(Layer layer : song.getLayerHashMap().values()) {
-			Note note = layer.getNote(tick);
-			if(note == null) {
+		Timeline timeline = song.getTimeline();
+		int start = timeline.getStart(tick);
+		int end = timeline.getEnd(tick);
+		if(start == end) {
+			return;
+		}
+
+		int pooled = 0;
+		for(Listener listener : online.values()) {
+			ServerPlayer player = listener.player;
+			var eyePos = player.getEyePosition();
+			// floor like BlockPos.containing in the per-player path
+			probe.set((int) this.volume * (int) Nota.getPlayerVolume(player),
+					(int) Math.floor(eyePos.x()), (int) Math.floor(eyePos.y()), (int) Math.floor(eyePos.z()));
+			SharedGroup group = groups.get(probe);
+			if(group == null) {
+				if(pooled == groupPool.size()) {
+					groupPool.add(new SharedGroup());
+				}
+				group = groupPool.get(pooled++);
+				group.set(probe.volume, probe.x, probe.y, probe.z);
+				groups.put(group, group);
+			}
+			group.players.add(player);
+		}
+
+		SoundBatch batch = scheduler.getBatch();
+		for(SharedGroup group : groups.values()) {
+			ArrayList<ServerPlayer> players = group.players;
+			if(players.size() == 1) {
+				// sharing would build as many packets and only move the sound
+				playTick(players.get(0), tick);
 				continue;
 			}
+			var center = new BlockPos(group.x, group.y, group.z).getCenter();
 
-			float volume = (layer.getVolume() * (int) this.volume * (int) playerVolume * note.getVelocity()) / 100_00_00_00F;
-			var eyePos = player.getEyePosition();
-			channelMode.play(player, new BlockPos((int) eyePos.x(), (int) eyePos.y(), (int) eyePos.z()), song, layer, note, volume, !enable10Octave);
+			sharedTick.clear();
+			float groupVolume = group.volume / 100_00F;
+			for(int i = start; i < end; i++) {
+				float volume = timeline.getGain(i) * groupVolume;
+				Packet<? super ClientGamePacketListener> packet = channelMode.createPacket(center.x(), center.y(), center.z(), timeline, i, volume, !enable10Octave);
+				if(packet == null) {
+					// channel mode is player dependent
+					for(ServerPlayer player : players) {
+						playTick(player, tick);
+					}
+					sharedTick.clear();
+					break;
+				}
+				sharedTick.add(packet);
+			}
+
+			boolean budget = batch.getBudget() > 0;
+			for(ServerPlayer player : players) {
+				for(int i = 0; i < sharedTick.size(); i++) {
+					if(budget) {
+						// shared packets are created in note order from the start of the tick
+						int index = start + i;
+						batch.add(player, sharedTick.get(i), getNotePriority(timeline, index, timeline.getGain(index) * groupVolume));
+					}
+					else {
+						batch.add(player, sharedTick.get(i));
+					}
+				}
+			}
+		}
+		for(int i = 0; i < pooled; i++) {
+			groupPool.get(i).players.clear();
+		}
+		groups.clear();
+		sharedTick.clear();
+	}
+
+	@Override
+	public void playTick(ServerPlayer player, int tick) {
+		Timeline timeline = song.getTimeline();
+		int start = timeline.getStart(tick);
+		int end = timeline.getEnd(tick);
+		if(start == end) {
+			return;
+		}
+
+		byte playerVolume = Nota.getPlayerVolume(player);
+		SoundBatch batch = scheduler.getBatch();
+		var eyePos = player.getEyePosition();
+		BlockPos pos = BlockPos.containing(eyePos.x(), eyePos.y(), eyePos.z());
+
+		float listenerVolume = ((int) this.volume * (int) playerVolume) / 100_00F;
+		for(int i = start; i < end; i++) {
+			float volume = timeline.getGain(i) * listenerVolume;
+			playNote(batch, player, pos, timeline, i, volume, volume);
+		}
+	}
+
+	private static final class SharedGroup {
+		final ArrayList<ServerPlayer> players = new ArrayList<>();
+		int volume;
+		int x;
+		int y;
+		int z;
+
+		void set(int volume, int x, int y, int z) {
+			this.volume = volume;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof SharedGroup group && volume == group.volume && x == group.x && y == group.y && z == group.z;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((volume * 31 + x) * 31 + y) * 31 + z;
 		}
 	}
 }
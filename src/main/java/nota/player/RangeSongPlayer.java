@@ -1,14 +1,45 @@
 package nota.player;
 
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+import nota.Nota;
 import nota.model.Playlist;
 import nota.model.Song;
+import nota.model.Timeline;
+import nota.model.playmode.SoundBatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * SongPlayer playing only in specified distance
+ * <p>
+ * When no listener is in range, the RangeSongPlayer goes idle. It keeps its position in the song,
+ * but notes and listeners are not touched until the range is checked again every {@link #IDLE_CHECK_INTERVAL} server ticks.
  */
 public abstract class RangeSongPlayer extends SongPlayer {
+	/**
+	 * Server ticks between range checks of an idle RangeSongPlayer
+	 */
+	public static final int IDLE_CHECK_INTERVAL = 20;
+
 	private int distance = 16;
+	private boolean autoAudience = false;
+	private volatile boolean idle = false;
+	// song ticks until the next range check, owned by the scheduler thread
+	private int idleCountdown = 0;
+
+	private final HashMap<UUID, long[]> audience = new HashMap<>();
+	Level indexedLevel;
+	long indexedSection;
+
+	private ServerPlayer[] listeners = new ServerPlayer[8];
+	private byte[] listenerVolumes = new byte[8];
+	private double[] listenerDistances = new double[8];
 
 	public RangeSongPlayer(Song song) {
 		super(song);
@@ -18,6 +49,15 @@ public abstract class RangeSongPlayer extends SongPlayer {
 		super(playlist);
 	}
 
+	/**
+	 * Stays on the server tick even with {@link AudioClock} enabled,
+	 * entities and players must not be read from the clock threads
+	 */
+	@Override
+	protected SongScheduler selectScheduler() {
+		return api.getServerScheduler();
+	}
+
 	/**
 	 * Sets distance in blocks where would be player able to hear sound.
 	 *
@@ -31,6 +71,73 @@ public abstract class RangeSongPlayer extends SongPlayer {
 		return distance;
 	}
 
+	/**
+	 * Returns whether players in range are added to this RangeSongPlayer automatically
+	 *
+	 * @return if automatic audience is enabled
+	 */
+	public boolean getAutoAudience() {
+		return autoAudience;
+	}
+
+	/**
+	 * Sets whether players in range are added to this RangeSongPlayer automatically.
+	 * <p>
+	 * If enabled, the RangeSongPlayer is tracked by {@link EmitterIndex}, players coming in range are added
+	 * and removed again when they leave the range. Players added with {@link #addPlayer(UUID)} are kept.
+	 * Players leaving the range never trigger {@link #setAutoDestroy(boolean) auto destroy}, the RangeSongPlayer
+	 * goes idle until someone comes in range again.
+	 *
+	 * @param autoAudience if automatic audience should be enabled
+	 */
+	public void setAutoAudience(boolean autoAudience) {
+		this.autoAudience = autoAudience;
+		if(autoAudience) {
+			api.getEmitterIndex().add(this);
+		}
+	}
+
+	/**
+	 * Returns true if no listener was in range at the last check, idle RangeSongPlayers play nothing
+	 * until a listener comes in range
+	 *
+	 * @return if idle
+	 */
+	public boolean isIdle() {
+		return idle;
+	}
+
+	/**
+	 * Marks a player as in range during an {@link EmitterIndex} update
+	 */
+	void markAudience(ServerPlayer player, UUID uuid, long update) {
+		long[] seen = audience.get(uuid);
+		if(seen != null) {
+			seen[0] = update;
+			if(!playerList.containsKey(uuid)) {
+				addPlayer(player);
+			}
+		}
+		else if(!playerList.containsKey(uuid)) {
+			audience.put(uuid, new long[] {update});
+			addPlayer(player);
+		}
+	}
+
+	/**
+	 * Removes automatically added players that were not marked during an {@link EmitterIndex} update.
+	 * An emitter left by everyone goes idle and is not destroyed, even with auto destroy enabled
+	 */
+	void dropLeftAudience(long update) {
+		for(Iterator<Map.Entry<UUID, long[]>> iterator = audience.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<UUID, long[]> entry = iterator.next();
+			if(entry.getValue()[0] != update) {
+				iterator.remove();
+				unlist(entry.getKey());
+			}
+		}
+	}
+
 	/**
 	 * Returns true if the Player is able to hear the current RangeSongPlayer
 	 *
@@ -39,4 +146,145 @@ public abstract class RangeSongPlayer extends SongPlayer {
 	 */
 	public abstract boolean isInRange(ServerPlayer player);
 
+	/**
+	 * Gets the level in which this RangeSongPlayer is playing
+	 *
+	 * @return level, null if unknown
+	 */
+	protected abstract Level getLevel();
+
+	/**
+	 * Gets the position from which this RangeSongPlayer is playing
+	 *
+	 * @return position, null if unknown
+	 */
+	protected abstract Vec3 getSourcePosition();
+
+	/**
+	 * Gets how much a note is attenuated at a distance, used as part of its priority for the note budget
+	 *
+	 * @param distance distance between listener and {@link #getSourcePosition()}
+	 * @return 1 at the source, 0 at {@link #getDistance()} and beyond
+	 */
+	protected float getAttenuation(double distance) {
+		return Math.max(0F, 1F - (float) (distance / Math.max(1, getDistance())));
+	}
+
+	/**
+	 * Called once per tick before listeners are resolved
+	 *
+	 * @return false if nothing should be played this tick
+	 */
+	protected boolean prepareTick() {
+		return true;
+	}
+
+	/**
+	 * Plays notes of a tick for a single listener which is in range
+	 *
+	 * @param player       listener
+	 * @param playerVolume listener's volume
+	 * @param distance     distance between listener and {@link #getSourcePosition()}
+	 * @param timeline     timeline of the played song
+	 * @param start        first note index of the tick
+	 * @param end          index after the last note of the tick
+	 * @param batch        batch of the current tick
+	 */
+	protected abstract void playNotes(ServerPlayer player, byte playerVolume, double distance,
+									  Timeline timeline, int start, int end, SoundBatch batch);
+
+	/**
+	 * Resolves world, range and volume of every listener once and plays the tick for those in range
+	 */
+	@Override
+	protected void playTick(int tick) {
+		if(idle && idleCountdown > 0) {
+			idleCountdown--;
+			return;
+		}
+		Timeline timeline = song.getTimeline();
+		int start = timeline.getStart(tick);
+		int end = timeline.getEnd(tick);
+		if(start == end || !prepareTick()) {
+			return;
+		}
+
+		Level level = getLevel();
+		Vec3 source = getSourcePosition();
+		int count = 0;
+		for(Listener listener : online.values()) {
+			ServerPlayer player = listener.player;
+			if(player.level() != level) {
+				continue; // not in same world
+			}
+			boolean inRange = isInRange(player);
+			if(listener.inRange != inRange) {
+				listener.inRange = inRange;
+				playerList.replace(listener.uuid, inRange);
+			}
+			if(!inRange) {
+				continue;
+			}
+			if(count == listeners.length) {
+				listeners = Arrays.copyOf(listeners, count * 2);
+				listenerVolumes = Arrays.copyOf(listenerVolumes, count * 2);
+				listenerDistances = Arrays.copyOf(listenerDistances, count * 2);
+			}
+			listeners[count] = player;
+			listenerVolumes[count] = Nota.getPlayerVolume(player);
+			listenerDistances[count] = player.position().distanceTo(source);
+			count++;
+		}
+		idle = count == 0;
+		if(idle) {
+			idleCountdown = Math.max(1, (int) (IDLE_CHECK_INTERVAL / song.getDelay()));
+			return;
+		}
+
+		SoundBatch batch = scheduler.getBatch();
+		for(int i = 0; i < count; i++) {
+			playNotes(listeners[i], listenerVolumes[i], listenerDistances[i], timeline, start, end, batch);
+			listeners[i] = null;
+		}
+	}
+
+	/**
+	 * Lets the scheduler skip every tick until the next range check while idle
+	 */
+	@Override
+	int getSilentTicks() {
+		int silent = super.getSilentTicks();
+		if(!idle || hasTickEvents() || !playing || tick < 0) {
+			return silent;
+		}
+		int idleTicks = Math.min(idleCountdown, song.getLength() - tick);
+		if(idleTicks <= silent || !song.getTimeline().isAvailable(tick + idleTicks)) {
+			return silent;
+		}
+		return idleTicks;
+	}
+
+	@Override
+	void skip(int ticks) {
+		if(idle) {
+			idleCountdown = Math.max(0, idleCountdown - ticks);
+		}
+		super.skip(ticks);
+	}
+
+	@Override
+	public void playTick(ServerPlayer player, int tick) {
+		Timeline timeline = song.getTimeline();
+		int start = timeline.getStart(tick);
+		int end = timeline.getEnd(tick);
+		if(start == end || !prepareTick() || player.level() != getLevel()) {
+			return;
+		}
+		boolean inRange = isInRange(player);
+		playerList.put(player.getUUID(), inRange);
+		if(inRange) {
+			double distance = player.position().distanceTo(getSourcePosition());
+			playNotes(player, Nota.getPlayerVolume(player), distance, timeline, start, end, scheduler.getBatch());
+		}
+	}
 }
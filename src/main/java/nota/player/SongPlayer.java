@@ -1,6 +1,8 @@
 package nota.player;
 
+import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import nota.Nota;
 import nota.event.SongStartEvent;
@@ -9,14 +11,21 @@ import nota.event.SongTickEvent;
 import nota.model.Playlist;
 import nota.model.RepeatMode;
 import nota.model.Song;
+import nota.model.Timeline;
 import nota.model.playmode.ChannelMode;
 import nota.model.playmode.MonoMode;
+import nota.model.playmode.SoundBatch;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Plays a Song for a list of Players
+ * <p>
+ * Song, position and playing state are owned by the thread of the {@link SongScheduler}. Methods changing them
+ * can be called from any thread, they are queued and applied together at the start of the next tick.
+ * Getters read the {@link State} published after the last tick, so they never see a half applied change.
  */
 @SuppressWarnings("unused")
 public abstract class SongPlayer {
@@ -26,25 +35,35 @@ public abstract class SongPlayer {
 	protected Playlist playlist;
 	protected int currentSongIndex = 0;
 
+	/**
+	 * Owned by the scheduler thread, use {@link #setPlaying(boolean)} and {@link #isPlaying()}
+	 */
 	public boolean playing = false;
 	protected boolean fading = false;
 	protected short tick = -1;
 	protected Map<UUID, Boolean> playerList = new ConcurrentHashMap<>();
+	// online players of playerList, resolved when added, on join and on respawn instead of every tick
+	final Map<UUID, Listener> online = new ConcurrentHashMap<>();
 
 	protected boolean autoDestroy = false;
 	protected boolean destroyed = false;
+	private volatile boolean tickEvents = true;
+
+	// lock-free stack of queued changes, taken as a whole by the scheduler thread
+	private final AtomicReference<Command> commands = new AtomicReference<>();
+	private volatile State state;
 
 	protected byte volume = 100;
-	float songDelay = 50.0F; //milliseconds per tick
+	private volatile float priority = 1F;
+	private volatile float[] layerPriorities = new float[0];
 
 	protected RepeatMode repeat = RepeatMode.ALL;
 
 	protected Nota api;
+	protected SongScheduler scheduler;
 	protected ChannelMode channelMode = new MonoMode();
 	protected boolean enable10Octave = false;
 
-	Timer timer = new Timer();
-
 	public SongPlayer(Song song) {
 		this(new Playlist(song));
 	}
@@ -53,8 +72,18 @@ public abstract class SongPlayer {
 		this.playlist = playlist;
 		this.api = Nota.getAPI();
 		this.song = playlist.get(this.currentSongIndex);
-		this.songDelay = song.getDelay() * 50.0f;
-		restartTask((long)this.songDelay);
+		publish();
+		this.scheduler = selectScheduler();
+		this.scheduler.register(this);
+	}
+
+	/**
+	 * Chooses the scheduler this SongPlayer is registered to, called from the constructor before fields of subclasses are set
+	 *
+	 * @return scheduler of new SongPlayers, see {@link Nota#getScheduler()}
+	 */
+	protected SongScheduler selectScheduler() {
+		return this.api.getScheduler();
 	}
 
 	/**
@@ -77,77 +106,188 @@ public abstract class SongPlayer {
 		this.enable10Octave = enable10Octave;
 	}
 
-	private void play() {
-		for(UUID uuid : playerList.keySet()) {
-			ServerPlayer player = Nota.getAPI().getServer().getPlayerList().getPlayer(uuid);
-			if(player != null) {
-				this.playTick(player, tick);
+	/**
+	 * Plays the tick for every online Player listening to this SongPlayer
+	 *
+	 * @param tick to play at
+	 */
+	protected void playTick(int tick) {
+		for(Listener listener : online.values()) {
+			this.playTick(listener.player, tick);
+		}
+	}
+
+	/**
+	 * Position and state of a SongPlayer as of its last tick
+	 *
+	 * @param song      played song
+	 * @param playlist  played playlist
+	 * @param songIndex index of the song in the playlist
+	 * @param tick      last played tick
+	 * @param playing   if the SongPlayer is playing
+	 * @param destroyed if the SongPlayer is destroyed
+	 */
+	public record State(Song song, Playlist playlist, int songIndex, short tick, boolean playing, boolean destroyed) {
+	}
+
+	/**
+	 * Gets the state published after the last tick
+	 *
+	 * @return state
+	 */
+	public State getState() {
+		return this.state;
+	}
+
+	/**
+	 * Returns true if there are changes waiting for the next tick
+	 *
+	 * @return if changes are queued
+	 */
+	boolean hasCommands() {
+		return commands.get() != null;
+	}
+
+	/**
+	 * Applies queued changes and publishes the new state, called by {@link SongScheduler} before ticking
+	 *
+	 * @return if any change was applied
+	 */
+	boolean update() {
+		Command taken = commands.getAndSet(null);
+		if(taken == null) {
+			return false;
+		}
+		// reverse to the order in which changes were queued
+		Command first = null;
+		while(taken != null) {
+			Command next = taken.next;
+			taken.next = first;
+			first = taken;
+			taken = next;
+		}
+		for(Command command = first; command != null; command = command.next) {
+			command.action.run();
+		}
+		publish();
+		return true;
+	}
+
+	private void enqueue(Runnable action) {
+		Command command = new Command(action);
+		Command head;
+		do {
+			head = commands.get();
+			command.next = head;
+		}
+		while(!commands.compareAndSet(head, command));
+	}
+
+	private void publish() {
+		this.state = new State(song, playlist, currentSongIndex, tick, playing, destroyed);
+	}
+
+	/**
+	 * Plays the next tick of the Song, called by {@link SongScheduler}
+	 */
+	void tick() {
+		boolean wasPlaying = playing;
+		update();
+		if(!playing || !wasPlaying) {
+			return; // resumed players start with the next tick of the scheduler
+		}
+		try {
+			advance();
+		}
+		finally {
+			publish();
+		}
+	}
+
+	/**
+	 * Gets number of ticks following the current one which play no note and can be skipped by {@link SongScheduler}
+	 * without calling {@link #tick()}, always 0 while tick events are enabled
+	 *
+	 * @return number of silent ticks
+	 */
+	int getSilentTicks() {
+		if(tickEvents || !playing || tick < 0) {
+			return 0;
+		}
+		Timeline timeline = song.getTimeline();
+		int end = song.getLength() + 1;
+		int next = timeline.getNextTick(tick + 1);
+		if(next < 0 || next > end) {
+			if(!timeline.isAvailable(end)) {
+				return 0; // rest of the song is not decoded yet
 			}
+			next = end;
+		}
+		return next - tick - 1;
+	}
+
+	/**
+	 * Moves over silent ticks without playing them, called by {@link SongScheduler} with at most {@link #getSilentTicks()} ticks
+	 *
+	 * @param ticks number of skipped ticks
+	 */
+	void skip(int ticks) {
+		if(ticks <= 0) {
+			return;
 		}
+		tick += (short) ticks;
+		publish();
 	}
 
-	private void onTaskRun(TimerTask task) {
-		if(this.destroyed || Nota.getAPI().isDisabling()) {
-			task.cancel();
+	private void advance() {
+		if(!song.getTimeline().isAvailable(tick + 1)) {
+			return; // wait for the song to be decoded
+		}
+		tick++;
+		if(tick == 0) {
+			SongStartEvent.EVENT.invoker().onSongStart(this);
 		}
-		if(playing) {
-			tick++;
-			if(tick == 0) {
-				SongStartEvent.EVENT.invoker().onSongStart(this);
+		if(tick > song.getLength()) {
+			SongEndEvent.EVENT.invoker().onSongEnd(this);
+
+			if(playlist.hasNext(currentSongIndex)) {
+				applyPlaySong(currentSongIndex + 1);
+				return;
 			}
-			if(tick > song.getLength()) {
-				SongEndEvent.EVENT.invoker().onSongEnd(this);
-				tick = -1;
-
-				if(playlist.hasNext(currentSongIndex)) {
-					currentSongIndex++;
-					song = playlist.get(currentSongIndex);
-					songDelay = song.getDelay() * 50.0f;
-					this.playSong(currentSongIndex);
-					this.restartTask((long)this.songDelay);
-					task.cancel();
-					return;
-				}
-				else {
-					currentSongIndex = 0;
-					song = playlist.get(currentSongIndex);
-					songDelay = song.getDelay() * 50.0f;
-					if(repeat.equals(RepeatMode.ALL)) {
-						this.restartTask((long)this.songDelay);
-						task.cancel();
-						return;
-					}
-					else {
-						this.restartTask((long)this.songDelay);
-						task.cancel();
-					}
-				}
-				playing = false;
-				if(this.autoDestroy) {
-					task.cancel();
-				}
+			applyPlaySong(0);
+			if(repeat.equals(RepeatMode.ALL)) {
 				return;
 			}
-			SongTickEvent.EVENT.invoker().onSongTick(this);
-			for(UUID uuid : playerList.keySet()) {
-				ServerPlayer player = Nota.getAPI().getServer().getPlayerList().getPlayer(uuid);
-				if(player != null) {
-					this.playTick(player, tick);
-				}
+			playing = false;
+			if(this.autoDestroy) {
+				applyDestroy();
 			}
+			return;
 		}
+		SongTickEvent.EVENT.invoker().onSongTick(this);
+		playTick(tick);
 	}
 
 	/**
-	 * Starts this SongPlayer
+	 * Returns true if {@link SongTickEvent} is fired for every tick of the Song
+	 *
+	 * @return if tick events are enabled
 	 */
-	private void restartTask(long delay) {
-		this.timer.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				onTaskRun(this);
-			}
-		}, 0L, delay);
+	public boolean hasTickEvents() {
+		return this.tickEvents;
+	}
+
+	/**
+	 * Enables or disables {@link SongTickEvent} for ticks without notes
+	 * <p>
+	 * When disabled, ticks which play no note are skipped by the scheduler and {@link SongTickEvent} is only fired
+	 * for ticks with notes. {@link SongStartEvent} and {@link SongEndEvent} are fired as before.
+	 * The published tick may lag behind during rests.
+	 *
+	 * @param tickEvents true to fire an event for every tick, default true
+	 */
+	public void setTickEvents(boolean tickEvents) {
+		this.tickEvents = tickEvents;
 	}
 
 	/**
@@ -183,7 +323,7 @@ public abstract class SongPlayer {
 	 * @param player player entity
 	 */
 	public void addPlayer(ServerPlayer player) {
-		addPlayer(player.getUUID());
+		addPlayer(player.getUUID(), player);
 	}
 
 	/**
@@ -192,14 +332,44 @@ public abstract class SongPlayer {
 	 * @param playerUuid player's uuid
 	 */
 	public void addPlayer(UUID playerUuid) {
-		if(!this.playerList.containsKey(playerUuid)) {
-			this.playerList.put(playerUuid, false);
-			ArrayList<SongPlayer> songs = Nota.getSongPlayersByPlayer(playerUuid);
-			if(songs == null) {
-				songs = new ArrayList<>();
+		MinecraftServer server = api.getServer();
+		addPlayer(playerUuid, server != null ? server.getPlayerList().getPlayer(playerUuid) : null);
+	}
+
+	private void addPlayer(UUID playerUuid, ServerPlayer player) {
+		// index in Nota and online players change under the lock of the playerList entry
+		this.playerList.compute(playerUuid, (uuid, inRange) -> {
+			if(inRange == null) {
+				Nota.addListener(uuid, this);
+				inRange = false;
+			}
+			if(player != null) {
+				online.computeIfAbsent(uuid, Listener::new).player = player;
 			}
-			songs.add(this);
-			Nota.setSongPlayersByPlayer(playerUuid, songs);
+			return inRange;
+		});
+	}
+
+	/**
+	 * Replaces the ServerPlayer of a listening Player, called by {@link Nota} when the Player joins or respawns
+	 *
+	 * @param player new player entity
+	 */
+	public void updatePlayer(ServerPlayer player) {
+		this.playerList.computeIfPresent(player.getUUID(), (uuid, inRange) -> {
+			online.computeIfAbsent(uuid, Listener::new).player = player;
+			return inRange;
+		});
+	}
+
+	/**
+	 * Adds Players to the list of Players listening to this SongPlayer
+	 *
+	 * @param playerUuids players' uuids
+	 */
+	public void addPlayers(Collection<UUID> playerUuids) {
+		for(UUID playerUuid : playerUuids) {
+			addPlayer(playerUuid);
 		}
 	}
 
@@ -232,12 +402,37 @@ public abstract class SongPlayer {
 	public abstract void playTick(ServerPlayer player, int tick);
 
 	/**
-	 * SongPlayer will destroy itself
+	 * SongPlayer will destroy itself and stop being ticked, applied at the next tick
 	 */
 	public void destroy() {
+		enqueue(this::applyDestroy);
+	}
+
+	/**
+	 * Destroys this SongPlayer at once and removes all its listeners, called by {@link SongScheduler}
+	 * when a tick failed and the SongPlayer will not be ticked again
+	 */
+	void abort() {
+		destroy();
+		update();
+		for(UUID playerUuid : playerList.keySet()) {
+			unlist(playerUuid);
+		}
+	}
+
+	private void applyDestroy() {
 		this.destroyed = true;
 		this.playing = false;
-		this.setTick((short) -1);
+		this.tick = -1;
+	}
+
+	/**
+	 * Returns whether the SongPlayer has been destroyed
+	 *
+	 * @return if this player is destroyed
+	 */
+	public boolean isDestroyed() {
+		return this.state.destroyed();
 	}
 
 	/**
@@ -246,16 +441,16 @@ public abstract class SongPlayer {
 	 * @return if this player is playing
 	 */
 	public boolean isPlaying() {
-		return this.playing;
+		return this.state.playing();
 	}
 
 	/**
-	 * Sets whether the SongPlayer is playing
+	 * Sets whether the SongPlayer is playing, applied at the next tick
 	 *
 	 * @param playing if this player should play
 	 */
 	public void setPlaying(boolean playing) {
-		this.playing = playing;
+		enqueue(() -> this.playing = playing);
 	}
 
 	/**
@@ -264,16 +459,16 @@ public abstract class SongPlayer {
 	 * @return current tick
 	 */
 	public short getTick() {
-		return this.tick;
+		return this.state.tick();
 	}
 
 	/**
-	 * Sets the current tick of this SongPlayer
+	 * Sets the current tick of this SongPlayer, applied at the next tick
 	 *
 	 * @param tick tick
 	 */
 	public void setTick(short tick) {
-		this.tick = tick;
+		enqueue(() -> this.tick = tick);
 	}
 
 	/**
@@ -291,19 +486,45 @@ public abstract class SongPlayer {
 	 * @param playerUuid of player to remove
 	 */
 	public void removePlayer(UUID playerUuid) {
-		playerList.remove(playerUuid);
-		if(Nota.getSongPlayersByPlayer(playerUuid) == null) {
+		if(!unlist(playerUuid)) {
 			return;
 		}
-		ArrayList<SongPlayer> songs = new ArrayList<>(
-				Nota.getSongPlayersByPlayer(playerUuid));
-		songs.remove(this);
-		Nota.setSongPlayersByPlayer(playerUuid, songs);
 		if(this.playerList.isEmpty() && this.autoDestroy) {
 			destroy();
 		}
 	}
 
+	/**
+	 * Removes a player from playerList and from the index in {@link Nota}, does not destroy an empty SongPlayer
+	 *
+	 * @return false if the player was not listening
+	 */
+	boolean unlist(UUID playerUuid) {
+		boolean[] removed = new boolean[1];
+		playerList.computeIfPresent(playerUuid, (uuid, inRange) -> {
+			Nota.removeListener(uuid, this);
+			online.remove(uuid);
+			removed[0] = true;
+			return null;
+		});
+		return removed[0];
+	}
+
+	/**
+	 * Removes players from this SongPlayer
+	 *
+	 * @param playerUuids of players to remove
+	 */
+	public void removePlayers(Collection<UUID> playerUuids) {
+		boolean removed = false;
+		for(UUID playerUuid : playerUuids) {
+			removed |= unlist(playerUuid);
+		}
+		if(removed && this.playerList.isEmpty() && this.autoDestroy) {
+			destroy();
+		}
+	}
+
 	/**
 	 * Gets the current volume of this SongPlayer
 	 *
@@ -328,13 +549,91 @@ public abstract class SongPlayer {
 		this.volume = volume;
 	}
 
+	/**
+	 * Gets the priority of notes of this SongPlayer
+	 *
+	 * @return priority, default 1
+	 */
+	public float getPriority() {
+		return this.priority;
+	}
+
+	/**
+	 * Sets the priority of notes of this SongPlayer
+	 * <p>
+	 * When a listener receives more notes in a tick than the budget set by {@link Nota#setNoteBudget(int)},
+	 * notes with the lowest loudness multiplied by this and the layer priority are dropped first.
+	 *
+	 * @param priority priority, default 1
+	 */
+	public void setPriority(float priority) {
+		this.priority = Math.max(0F, priority);
+	}
+
+	/**
+	 * Gets the priority of notes of a layer
+	 *
+	 * @param layer layer index
+	 * @return priority, default 1
+	 */
+	public float getLayerPriority(int layer) {
+		float[] layerPriorities = this.layerPriorities;
+		return layer >= 0 && layer < layerPriorities.length ? layerPriorities[layer] : 1F;
+	}
+
+	/**
+	 * Sets the priority of notes of a layer, see {@link #setPriority(float)}
+	 *
+	 * @param layer    layer index
+	 * @param priority priority, default 1
+	 */
+	public synchronized void setLayerPriority(int layer, float priority) {
+		float[] layerPriorities = Arrays.copyOf(this.layerPriorities, Math.max(this.layerPriorities.length, layer + 1));
+		for(int i = this.layerPriorities.length; i < layerPriorities.length; i++) {
+			layerPriorities[i] = 1F;
+		}
+		layerPriorities[layer] = Math.max(0F, priority);
+		this.layerPriorities = layerPriorities;
+	}
+
+	/**
+	 * Gets the priority of a note for the note budget
+	 *
+	 * @param loudness effective volume of the note for the listener
+	 * @return loudness weighted by priorities of this SongPlayer and of the layer
+	 */
+	float getNotePriority(Timeline timeline, int index, float loudness) {
+		return loudness * priority * getLayerPriority(timeline.getLayer(index));
+	}
+
+	/**
+	 * Queues a note for a listener with its priority for the note budget
+	 *
+	 * @param batch    batch of the current tick
+	 * @param player   listener
+	 * @param pos      position passed to the {@link ChannelMode}
+	 * @param timeline timeline of the played song
+	 * @param index    note index
+	 * @param volume   volume passed to the {@link ChannelMode}
+	 * @param loudness effective volume of the note for the listener
+	 */
+	protected void playNote(SoundBatch batch, ServerPlayer player, BlockPos pos, Timeline timeline, int index, float volume, float loudness) {
+		if(batch.getBudget() == 0) {
+			channelMode.play(batch, player, pos, timeline, index, volume, !enable10Octave);
+			return;
+		}
+		batch.setPriority(getNotePriority(timeline, index, loudness));
+		channelMode.play(batch, player, pos, timeline, index, volume, !enable10Octave);
+		batch.setPriority(SoundBatch.DEFAULT_PRIORITY);
+	}
+
 	/**
 	 * Gets the Song being played by this SongPlayer
 	 *
 	 * @return song
 	 */
 	public Song getSong() {
-		return this.song;
+		return this.state.song();
 	}
 
 	/**
@@ -343,14 +642,14 @@ public abstract class SongPlayer {
 	 * @return playlist
 	 */
 	public Playlist getPlaylist() {
-		return this.playlist;
+		return this.state.playlist();
 	}
 
 	/**
 	 * Sets the Playlist being played by this SongPlayer. Will affect next Song
 	 */
 	public void setPlaylist(Playlist playlist) {
-		this.playlist = playlist;
+		enqueue(() -> this.playlist = playlist);
 	}
 
 	/**
@@ -359,7 +658,7 @@ public abstract class SongPlayer {
 	 * @return song index
 	 */
 	public int getPlayedSongIndex() {
-		return this.currentSongIndex;
+		return this.state.songIndex();
 	}
 
 	/**
@@ -369,6 +668,10 @@ public abstract class SongPlayer {
 	 * @param index song index
 	 */
 	public void playSong(int index) {
+		enqueue(() -> applyPlaySong(index));
+	}
+
+	private void applyPlaySong(int index) {
 		if(this.playlist.exist(index)) {
 			this.song = this.playlist.get(index);
 			this.currentSongIndex = index;
@@ -380,7 +683,7 @@ public abstract class SongPlayer {
 	 * Start playing {@link Song} that is next in {@link Playlist} or random {@link Song} from {@link Playlist}
 	 */
 	public void playNextSong() {
-		this.tick = this.song.getLength();
+		enqueue(() -> this.tick = this.song.getLength());
 	}
 
 	/**
@@ -404,4 +707,27 @@ public abstract class SongPlayer {
 	public ChannelMode getChannelMode() {
 		return this.channelMode;
 	}
+
+	private static final class Command {
+		final Runnable action;
+		Command next;
+
+		Command(Runnable action) {
+			this.action = action;
+		}
+	}
+
+	/**
+	 * Online player listening to a SongPlayer
+	 */
+	static final class Listener {
+		final UUID uuid;
+		volatile ServerPlayer player;
+		// in range flag last written to playerList, only used on the scheduler thread
+		boolean inRange = false;
+
+		Listener(UUID uuid) {
+			this.uuid = uuid;
+		}
+	}
 }
@@ -0,0 +1,40 @@
+package nota.player;
+
+import nota.model.playmode.SoundBatch;
+
+/**
+ * Decides when {@link SongPlayer}s play their next tick
+ *
+ * @see PlaybackScheduler
+ * @see AudioClock
+ */
+public interface SongScheduler {
+
+	/**
+	 * Adds a SongPlayer to this scheduler, can be called from any thread.
+	 * SongPlayer is dropped by the scheduler once it is destroyed.
+	 *
+	 * @param songPlayer song player
+	 */
+	void register(SongPlayer songPlayer);
+
+	/**
+	 * Gets number of SongPlayers driven by this scheduler
+	 *
+	 * @return number of song players
+	 */
+	int getCount();
+
+	/**
+	 * Gets the batch collecting sounds of the current tick, flushed by the scheduler after each tick.
+	 * Must only be used while a SongPlayer is being ticked by this scheduler.
+	 *
+	 * @return sound batch
+	 */
+	SoundBatch getBatch();
+
+	/**
+	 * Drops all SongPlayers, used when the server is stopping
+	 */
+	void clear();
+}
@@ -0,0 +1,142 @@
+package nota.utils;
+
+import net.minecraft.core.Holder;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.sounds.SoundEvent;
+import net.minecraft.sounds.SoundEvents;
+import nota.model.CustomInstrument;
+import nota.model.Song;
+
+import java.util.Locale;
+
+/**
+ * Resolves instrument ids to {@link SoundEvent} holders once, so playing a note is a single array load.
+ * <p>
+ * Vanilla instruments are resolved from the server registry on server start,
+ * before that built-in holders from {@link SoundEvents} are used.
+ */
+public class InstrumentSounds {
+
+	@SuppressWarnings("unchecked")
+	private static final Holder.Reference<SoundEvent>[] DEFAULTS = new Holder.Reference[] {
+			SoundEvents.NOTE_BLOCK_HARP,
+			SoundEvents.NOTE_BLOCK_BASS,
+			SoundEvents.NOTE_BLOCK_BASEDRUM,
+			SoundEvents.NOTE_BLOCK_SNARE,
+			SoundEvents.NOTE_BLOCK_HAT,
+			SoundEvents.NOTE_BLOCK_GUITAR,
+			SoundEvents.NOTE_BLOCK_FLUTE,
+			SoundEvents.NOTE_BLOCK_BELL,
+			SoundEvents.NOTE_BLOCK_CHIME,
+			SoundEvents.NOTE_BLOCK_XYLOPHONE,
+			SoundEvents.NOTE_BLOCK_IRON_XYLOPHONE,
+			SoundEvents.NOTE_BLOCK_COW_BELL,
+			SoundEvents.NOTE_BLOCK_DIDGERIDOO,
+			SoundEvents.NOTE_BLOCK_BIT,
+			SoundEvents.NOTE_BLOCK_BANJO,
+			SoundEvents.NOTE_BLOCK_PLING
+	};
+
+	private static Holder<SoundEvent>[] vanilla = DEFAULTS.clone();
+	private static Registry<SoundEvent> registry = null;
+	private static volatile int generation = 0;
+
+	/**
+	 * Resolves vanilla instrument sounds from the server registry, called on server start.
+	 * Tables returned by {@link #forSong(Song)} before this call are rebuilt on their next use.
+	 *
+	 * @param server started server
+	 */
+	public static void resolve(MinecraftServer server) {
+		Registry<SoundEvent> registry = server.registryAccess().lookupOrThrow(Registries.SOUND_EVENT);
+		@SuppressWarnings("unchecked")
+		Holder<SoundEvent>[] resolved = new Holder[DEFAULTS.length];
+		for(int i = 0; i < DEFAULTS.length; i++) {
+			Holder.Reference<SoundEvent> fallback = DEFAULTS[i];
+			resolved[i] = registry.get(fallback.key()).<Holder<SoundEvent>>map(holder -> holder).orElse(fallback);
+		}
+		InstrumentSounds.registry = registry;
+		InstrumentSounds.vanilla = resolved;
+		generation++;
+	}
+
+	/**
+	 * Gets the number of times sounds were resolved, tables built with an older generation are outdated
+	 *
+	 * @return generation
+	 */
+	public static int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the sound of a vanilla instrument
+	 *
+	 * @param instrument instrument id
+	 * @return sound holder, harp for unknown instruments
+	 */
+	public static Holder<SoundEvent> get(byte instrument) {
+		Holder<SoundEvent>[] vanilla = InstrumentSounds.vanilla;
+		if(instrument < 0 || instrument >= vanilla.length) {
+			return vanilla[0];
+		}
+		return vanilla[instrument];
+	}
+
+	/**
+	 * Builds instrument id to sound table of a Song, including its {@link CustomInstrument}s.
+	 * Ids without a known instrument are mapped to harp.
+	 *
+	 * @param song song
+	 * @return table indexed by unsigned instrument id
+	 */
+	@SuppressWarnings("unchecked")
+	public static Holder<SoundEvent>[] forSong(Song song) {
+		Holder<SoundEvent>[] vanilla = InstrumentSounds.vanilla;
+		CustomInstrument[] customInstruments = song.getCustomInstruments();
+		int first = song.getFirstCustomInstrumentIndex();
+
+		Holder<SoundEvent>[] table = new Holder[256];
+		for(int i = 0; i < table.length; i++) {
+			if(i < vanilla.length) {
+				table[i] = vanilla[i];
+			}
+			else if(customInstruments != null && i >= first && i - first < customInstruments.length) {
+				table[i] = getCustom(customInstruments[i - first]);
+			}
+			else {
+				table[i] = vanilla[0];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Resolves sound of a {@link CustomInstrument} from its sound file name.
+	 * Sounds missing in the registry are expected to be provided by a resource pack.
+	 *
+	 * @param instrument custom instrument
+	 * @return sound holder
+	 */
+	public static Holder<SoundEvent> getCustom(CustomInstrument instrument) {
+		if(instrument == null || instrument.getSoundFileName() == null) {
+			return vanilla[0];
+		}
+		String name = instrument.getSoundFileName().replace('/', '.').toLowerCase(Locale.ROOT);
+		ResourceLocation location = ResourceLocation.tryParse(name);
+		if(location == null) {
+			return vanilla[0];
+		}
+		Registry<SoundEvent> registry = InstrumentSounds.registry;
+		if(registry != null) {
+			var holder = registry.get(location);
+			if(holder.isPresent()) {
+				return holder.get();
+			}
+		}
+		return Holder.direct(SoundEvent.createVariableRangeEvent(location));
+	}
+}
@@ -18,7 +18,7 @@ public class InstrumentUtils {
 	 * @see Sound
 	 */
 	public static SoundEvent getInstrument(byte instrument) {
-		return Sound.getFromBukkitName(getInstrumentName(instrument));
+		return InstrumentSounds.get(instrument).value();
 	}
 
 	/**
@@ -0,0 +1,295 @@
+package nota.utils;
+
+import nota.Nota;
+import nota.model.CompiledSong;
+import nota.model.CustomInstrument;
+import nota.model.Song;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Cache of compiled songs in .nbsc files, loading a .nbsc skips decoding the .nbs and building its Layers.
+ * <p>
+ * A .nbsc holds the {@link CompiledSong} timeline together with song metadata and is read with a single bulk read.
+ * Every cache stores size, modification time and SHA-256 hash of its source .nbs. It is used only while the size and
+ * modification time match, or the content hash matches after the source was touched or copied, otherwise the source
+ * is decoded again and the cache is rewritten. Caches written by another {@link #VERSION} are ignored.
+ *
+ * <pre>{@code
+ * Song song = NBSCache.load(new File("songs/tetris.nbs"));                   // songs/tetris.nbsc
+ * Song song2 = NBSCache.load(new File("songs/tetris.nbs"), new File("cache")); // cache/tetris.<id>.nbsc
+ * }</pre>
+ */
+public class NBSCache {
+	/**
+	 * Version of the format, increased whenever the format or the output of {@link NBSDecoder} changes
+	 */
+	public static final short VERSION = 2;
+	public static final String EXTENSION = ".nbsc";
+
+	private static final int MAGIC = 0x4E425343; // NBSC
+	private static final int HASH_LENGTH = 32;
+	private static final int STAMP_OFFSET = Integer.BYTES + Short.BYTES;
+	private static final int HEADER_LENGTH = STAMP_OFFSET + Long.BYTES * 2 + HASH_LENGTH;
+
+	/**
+	 * Loads a Song using a cache next to the source file
+	 *
+	 * @param songFile .nbs file
+	 * @return song
+	 * @throws IOException if the source can't be read or is corrupted
+	 */
+	public static Song load(File songFile) throws IOException {
+		return load(songFile, null);
+	}
+
+	/**
+	 * Loads a Song from its cache if it is up-to-date, otherwise decodes the source and writes the cache
+	 *
+	 * @param songFile  .nbs file
+	 * @param directory directory with caches, null to keep the cache next to the source
+	 * @return song
+	 * @throws IOException if the source can't be read or is corrupted
+	 */
+	public static Song load(File songFile, File directory) throws IOException {
+		File cacheFile = getCacheFile(songFile, directory);
+		long size = songFile.length();
+		long modified = songFile.lastModified();
+
+		ByteBuffer source = null;
+		if(cacheFile.isFile()) {
+			try {
+				ByteBuffer cache = NBSDecoder.read(cacheFile);
+				if(readHeader(cache, size, modified, null)) {
+					return readSong(cache, songFile);
+				}
+				// touched or copied, content may still be the same
+				source = NBSDecoder.read(songFile);
+				byte[] hash = hash(source);
+				if(readHeader(cache, size, -1, hash)) {
+					Song song = readSong(cache, songFile);
+					writeStamp(cacheFile, size, modified);
+					return song;
+				}
+			}
+			catch(IOException | RuntimeException e) {
+				Nota.LOGGER.warn("Ignoring broken song cache {}: {}", cacheFile, e.getMessage());
+			}
+		}
+
+		if(source == null) {
+			source = NBSDecoder.read(songFile);
+		}
+		Song song = NBSDecoder.decode(source, songFile);
+		try {
+			write(song, cacheFile, size, modified, hash(source));
+		}
+		catch(IOException e) {
+			Nota.LOGGER.warn("Failed to write song cache {}: {}", cacheFile, e.getMessage());
+		}
+		return song;
+	}
+
+	/**
+	 * Gets the cache file of a song
+	 *
+	 * @param songFile  .nbs file
+	 * @param directory directory with caches, null to keep the cache next to the source
+	 * @return .nbsc file
+	 */
+	public static File getCacheFile(File songFile, File directory) {
+		String name = songFile.getName();
+		if(name.toLowerCase(Locale.ROOT).endsWith(".nbs")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		if(directory == null) {
+			return new File(songFile.getAbsoluteFile().getParentFile(), name + EXTENSION);
+		}
+		// songs with the same name from different directories must not share a cache, id is half of the path hash
+		byte[] path = songFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+		String id = HexFormat.of().formatHex(hash(ByteBuffer.wrap(path)), 0, 16);
+		return new File(directory, name + "." + id + EXTENSION);
+	}
+
+	/**
+	 * Computes the content hash of a song, position of the buffer is not changed
+	 *
+	 * @param data content of a .nbs file
+	 * @return SHA-256 hash
+	 */
+	public static byte[] hash(ByteBuffer data) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data.duplicate());
+			return digest.digest();
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+	}
+
+	/**
+	 * Writes a compiled song to a .nbsc file, the file is replaced atomically
+	 *
+	 * @param song     song
+	 * @param file     target file
+	 * @param size     size of the source
+	 * @param modified modification time of the source
+	 * @param hash     content hash of the source
+	 * @throws IOException if writing fails
+	 */
+	public static void write(Song song, File file, long size, long modified, byte[] hash) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		Files.createDirectories(parent.toPath());
+		File temp = File.createTempFile(file.getName(), ".tmp", parent);
+		try {
+			try(OutputStream stream = Files.newOutputStream(temp.toPath())) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+				writeSong(out, song, size, modified, hash);
+				out.flush();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static void writeSong(DataOutputStream out, Song song, long size, long modified, byte[] hash) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(size);
+		out.writeLong(modified);
+		out.write(Arrays.copyOf(hash, HASH_LENGTH));
+
+		out.writeFloat(song.getSpeed());
+		out.writeShort(song.getSongHeight());
+		out.writeShort(song.getLength());
+		out.writeInt(song.getFirstCustomInstrumentIndex());
+		out.writeBoolean(song.isStereo());
+		writeString(out, song.getTitle());
+		writeString(out, song.getAuthor());
+		writeString(out, song.getOriginalAuthor());
+		writeString(out, song.getDescription());
+
+		CustomInstrument[] customInstruments = song.getCustomInstruments();
+		out.writeInt(customInstruments.length);
+		for(CustomInstrument instrument : customInstruments) {
+			out.writeByte(instrument.getIndex());
+			writeString(out, instrument.getName());
+			writeString(out, instrument.getSoundFileName());
+		}
+
+		CompiledSong compiled = song.getCompiled();
+		int layerCount = 0;
+		for(int i = 0; i < compiled.getNoteCount(); i++) {
+			layerCount = Math.max(layerCount, compiled.getLayer(i) + 1);
+		}
+		out.writeInt(layerCount);
+		for(int i = 0; i < layerCount; i++) {
+			// names only, getLayerHashMap() would build and keep Layers of a compiled song
+			writeString(out, song.getLayerName(i));
+		}
+		compiled.write(out);
+	}
+
+	private static boolean readHeader(ByteBuffer buffer, long size, long modified, byte[] hash) {
+		if(buffer.remaining() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+			return false;
+		}
+		if(buffer.getLong(STAMP_OFFSET) != size) {
+			return false;
+		}
+		if(hash == null) {
+			return buffer.getLong(STAMP_OFFSET + Long.BYTES) == modified;
+		}
+		byte[] stored = new byte[HASH_LENGTH];
+		buffer.get(STAMP_OFFSET + Long.BYTES * 2, stored);
+		return Arrays.equals(stored, hash);
+	}
+
+	private static void writeStamp(File cacheFile, long size, long modified) {
+		try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.WRITE)) {
+			ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES * 2).putLong(size).putLong(modified).flip();
+			channel.write(stamp, STAMP_OFFSET);
+		}
+		catch(IOException e) {
+			Nota.LOGGER.warn("Failed to update song cache {}: {}", cacheFile, e.getMessage());
+		}
+	}
+
+	private static Song readSong(ByteBuffer data, File songFile) throws IOException {
+		ByteBuffer buffer = data.duplicate();
+		if(buffer.position() < HEADER_LENGTH) {
+			buffer.position(HEADER_LENGTH);
+		}
+		try {
+			float speed = buffer.getFloat();
+			short songHeight = buffer.getShort();
+			short length = buffer.getShort();
+			int firstCustomInstrumentIndex = buffer.getInt();
+			boolean isStereo = buffer.get() != 0;
+			String title = readString(buffer);
+			String author = readString(buffer);
+			String originalAuthor = readString(buffer);
+			String description = readString(buffer);
+
+			CustomInstrument[] customInstruments = new CustomInstrument[buffer.getInt()];
+			for(int i = 0; i < customInstruments.length; i++) {
+				byte index = buffer.get();
+				customInstruments[i] = new CustomInstrument(index, readString(buffer), readString(buffer));
+			}
+
+			String[] layerNames = new String[buffer.getInt()];
+			for(int i = 0; i < layerNames.length; i++) {
+				layerNames[i] = readString(buffer);
+			}
+			CompiledSong compiled = CompiledSong.read(buffer);
+
+			return new Song(speed, compiled, layerNames, songHeight, length, title, author, originalAuthor,
+					description, songFile, firstCustomInstrumentIndex, customInstruments, isStereo);
+		}
+		catch(BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+			throw new IOException("Song cache is corrupted: " + (songFile != null ? songFile.getName() : ""), e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if(string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0) {
+			return null;
+		}
+		if(length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
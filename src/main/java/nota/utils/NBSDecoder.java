@@ -1,25 +1,44 @@
 package nota.utils;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.Executor;
 
+import nota.Nota;
+import nota.model.CompiledSong;
 import nota.model.CustomInstrument;
-import nota.model.Layer;
-import nota.model.Note;
+import nota.model.PackedNote;
 import nota.model.Song;
+import nota.model.SongInfo;
+import nota.model.StreamingSong;
 
 /**
  * Utils for reading Note Block Studio data
  */
 public class NBSDecoder {
+	/**
+	 * Files larger than this are memory-mapped instead of read into the heap
+	 */
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+	/**
+	 * Bytes read at once while looking for the end of the header of a stream
+	 */
+	private static final int STREAM_CHUNK = 4096;
 
 	/**
 	 * Parses a Song from a Note Block Studio project file (.nbs)
@@ -30,10 +49,10 @@ public class NBSDecoder {
 	 */
 	public static Song parse(File songFile) {
 		try {
-			return parse(new FileInputStream(songFile), songFile);
+			return decode(songFile);
 		}
-		catch(FileNotFoundException e) {
-			e.printStackTrace();
+		catch(IOException e) {
+			Nota.LOGGER.error("Failed to read song {}: {}", songFile, e.getMessage());
 		}
 		return null;
 	}
@@ -46,164 +65,512 @@ public class NBSDecoder {
 	 * @see Song
 	 */
 	public static Song parse(InputStream inputStream) {
-		return parse(inputStream, null); // Source is unknown -> no file
+		try {
+			return decode(ByteBuffer.wrap(inputStream.readAllBytes()), null); // Source is unknown -> no file
+		}
+		catch(IOException e) {
+			Nota.LOGGER.error("Failed to read song: {}", e.getMessage());
+		}
+		return null;
 	}
 
 	/**
-	 * Parses a Song from an InputStream and a Note Block Studio project file (.nbs)
+	 * Parses a Song from the content of a Note Block Studio project file (.nbs)
 	 *
-	 * @param inputStream of a .nbs file
-	 * @param songFile    representing a .nbs file
-	 * @return Song object representing the given .nbs file
+	 * @param data content of a .nbs file
+	 * @return Song object from the data
 	 * @see Song
 	 */
-	private static Song parse(InputStream inputStream, File songFile) {
-		HashMap<Integer, Layer> layerHashMap = new HashMap<Integer, Layer>();
-		byte biggestInstrumentIndex = -1;
-		boolean isStereo = false;
+	public static Song parse(byte[] data) {
+		return parse(ByteBuffer.wrap(data), null);
+	}
+
+	/**
+	 * Parses a Song from the remaining content of a buffer, position of the buffer is not changed
+	 *
+	 * @param buffer content of a .nbs file
+	 * @return Song object from the buffer
+	 * @see Song
+	 */
+	public static Song parse(ByteBuffer buffer) {
+		return parse(buffer, null);
+	}
+
+	/**
+	 * Decodes a Song from a Note Block Studio project file (.nbs)
+	 *
+	 * @param songFile .nbs file
+	 * @return Song object representing a Note Block Studio project
+	 * @throws IOException if the file can't be read or is corrupted
+	 */
+	public static Song decode(File songFile) throws IOException {
+		return decode(read(songFile), songFile);
+	}
+
+	/**
+	 * Decodes a Song from the remaining content of a buffer, position of the buffer is not changed
+	 *
+	 * @param buffer   content of a .nbs file
+	 * @param songFile file the content comes from, can be null
+	 * @return Song object from the buffer
+	 * @throws IOException if the content is corrupted
+	 */
+	public static Song decode(ByteBuffer buffer, File songFile) throws IOException {
 		try {
-			DataInputStream dataInputStream = new DataInputStream(inputStream);
-			short length = readShort(dataInputStream);
-			int firstcustominstrument = 10; //Backward compatibility - most of songs with old structure are from 1.12
-			int firstcustominstrumentdiff;
-			int nbsversion = 0;
-			if(length == 0) {
-				nbsversion = dataInputStream.readByte();
-				firstcustominstrument = dataInputStream.readByte();
-				if(nbsversion >= 3) {
-					length = readShort(dataInputStream);
-				}
+			return decodeUnchecked(buffer, songFile);
+		}
+		catch(BufferUnderflowException | NegativeArraySizeException | IndexOutOfBoundsException e) {
+			throw new IOException("Song is corrupted: " + (songFile != null ? songFile.getName() : ""), e);
+		}
+	}
+
+	/**
+	 * Reads only metadata of a Note Block Studio project file (.nbs) without decoding its notes
+	 *
+	 * @param songFile .nbs file
+	 * @return song metadata
+	 * @throws IOException if the file can't be read or is corrupted
+	 */
+	public static SongInfo scan(File songFile) throws IOException {
+		// only the header is read unless the length has to be counted from the note blocks
+		try(InputStream inputStream = Files.newInputStream(songFile.toPath())) {
+			Head head = readHead(inputStream, songFile);
+			Header header = head.header();
+			int length = header.length;
+			if(header.nbsversion > 0 && header.nbsversion < 3) {
+				DataInputStream data = new DataInputStream(new BufferedInputStream(head.rest(inputStream)));
+				length = skipNotes(new StreamInput(data), header.nbsversion);
 			}
-			firstcustominstrumentdiff = InstrumentUtils.getCustomInstrumentFirstIndex() - firstcustominstrument;
-			short songHeight = readShort(dataInputStream);
-			String title = readString(dataInputStream);
-			String author = readString(dataInputStream);
-			String originalAuthor = readString(dataInputStream); // original author
-			String description = readString(dataInputStream);
-			float speed = readShort(dataInputStream) / 100f;
-			dataInputStream.readBoolean(); // auto-save
-			dataInputStream.readByte(); // auto-save duration
-			dataInputStream.readByte(); // x/4ths, time signature
-			readInt(dataInputStream); // minutes spent on project
-			readInt(dataInputStream); // left clicks (why?)
-			readInt(dataInputStream); // right clicks (why?)
-			readInt(dataInputStream); // blocks added
-			readInt(dataInputStream); // blocks removed
-			readString(dataInputStream); // .mid/.schematic file name
-			if(nbsversion >= 4) {
-				dataInputStream.readByte(); // loop on/off
-				dataInputStream.readByte(); // max loop count
-				readShort(dataInputStream); // loop start tick
+			return new SongInfo(songFile, header.title, header.author, header.originalAuthor, header.description,
+					length, header.speed, header.songHeight);
+		}
+		catch(EOFException | IllegalArgumentException e) {
+			throw new IOException("Song is corrupted: " + songFile.getName(), e);
+		}
+	}
+
+	/**
+	 * Reads only metadata from the remaining content of a buffer, position of the buffer is not changed.
+	 * Notes are skipped without being decoded, and only when the length is not in the header (versions 1 and 2).
+	 *
+	 * @param data     content of a .nbs file
+	 * @param songFile file the content comes from, can be null
+	 * @return song metadata
+	 * @throws IOException if the content is corrupted
+	 */
+	public static SongInfo scan(ByteBuffer data, File songFile) throws IOException {
+		try {
+			ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+			Header header = readHeader(buffer);
+			int length = header.length;
+			if(header.nbsversion > 0 && header.nbsversion < 3) {
+				length = skipNotes(new BufferInput(buffer), header.nbsversion);
 			}
-			short tick = -1;
-			while(true) {
-				short jumpTicks = readShort(dataInputStream); // jumps till next tick
-				//System.out.println("Jumps to next tick: " + jumpTicks);
-				if(jumpTicks == 0) {
-					break;
-				}
-				tick += jumpTicks;
-				//System.out.println("Tick: " + tick);
-				short layer = -1;
-				while(true) {
-					short jumpLayers = readShort(dataInputStream); // jumps till next layer
-					if(jumpLayers == 0) {
-						break;
-					}
-					layer += jumpLayers;
-					//System.out.println("Layer: " + layer);
-					byte instrument = dataInputStream.readByte();
-
-					if(firstcustominstrumentdiff > 0 && instrument >= firstcustominstrument) {
-						instrument += (byte) firstcustominstrumentdiff;
-					}
-
-					byte key = dataInputStream.readByte();
-					byte velocity = 100;
-					int panning = 100;
-					short pitch = 0;
-					if(nbsversion >= 4) {
-						velocity = dataInputStream.readByte(); // note block velocity
-						panning = 200 - dataInputStream.readUnsignedByte(); // note panning, 0 is right in nbs format
-						pitch = readShort(dataInputStream); // note block pitch
-					}
-
-					if(panning != 100) {
-						isStereo = true;
-					}
-
-					setNote(layer, tick,
-							new Note(instrument /* instrument */, key/* note */, velocity, panning, pitch),
-							layerHashMap);
+			return new SongInfo(songFile, header.title, header.author, header.originalAuthor, header.description,
+					length, header.speed, header.songHeight);
+		}
+		catch(BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Song is corrupted: " + (songFile != null ? songFile.getName() : ""), e);
+		}
+	}
+
+	/**
+	 * Starts decoding a Note Block Studio project file (.nbs) in the background.
+	 * Only the header is read before this method returns, notes become playable tick by tick.
+	 *
+	 * @param songFile .nbs file
+	 * @param executor executor decoding the notes
+	 * @return song which is being decoded
+	 * @throws IOException if the header can't be read or is corrupted
+	 * @see StreamingSong
+	 */
+	public static StreamingSong stream(File songFile, Executor executor) throws IOException {
+		InputStream inputStream = Files.newInputStream(songFile.toPath());
+		try {
+			return stream(inputStream, songFile, executor);
+		}
+		catch(IOException | RuntimeException e) {
+			inputStream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts decoding a Note Block Studio project from a stream in the background, the stream is closed once decoded.
+	 * Only the header is read before this method returns, notes become playable tick by tick.
+	 *
+	 * @param inputStream of a Note Block Studio project file (.nbs)
+	 * @param songFile    file the content comes from, can be null
+	 * @param executor    executor decoding the notes
+	 * @return song which is being decoded
+	 * @throws IOException if the header can't be read or is corrupted
+	 * @see StreamingSong
+	 */
+	public static StreamingSong stream(InputStream inputStream, File songFile, Executor executor) throws IOException {
+		Head head = readHead(inputStream, songFile);
+		Header header = head.header();
+
+		int firstcustominstrumentdiff = InstrumentUtils.getCustomInstrumentFirstIndex() - header.firstCustomInstrument;
+		int firstcustominstrument = header.firstCustomInstrument + Math.max(0, firstcustominstrumentdiff);
+		StreamingSong song = new StreamingSong(header.speed, header.songHeight, header.length, header.title, header.author,
+				header.originalAuthor, header.description, songFile, firstcustominstrument);
+
+		Header parsed = header;
+		InputStream rest = head.rest(inputStream);
+		executor.execute(() -> {
+			try(DataInputStream data = new DataInputStream(new BufferedInputStream(rest))) {
+				streamNotes(data, parsed, song);
+			}
+			catch(IOException | RuntimeException e) {
+				Nota.LOGGER.warn("Failed to stream song {}: {}", songFile, e.getMessage());
+				song.fail(e);
+			}
+		});
+		return song;
+	}
+
+	/**
+	 * Reads a stream in chunks until its header can be parsed, the header has no fixed length
+	 */
+	private static Head readHead(InputStream inputStream, File songFile) throws IOException {
+		byte[] head = new byte[0];
+		while(true) {
+			byte[] read = inputStream.readNBytes(STREAM_CHUNK);
+			head = Arrays.copyOf(head, head.length + read.length);
+			System.arraycopy(read, 0, head, head.length - read.length, read.length);
+			ByteBuffer buffer = ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN);
+			try {
+				Header header = readHeader(buffer);
+				return new Head(header, head, buffer.position());
+			}
+			catch(BufferUnderflowException e) {
+				if(read.length < STREAM_CHUNK) {
+					throw new IOException("Song is corrupted: " + (songFile != null ? songFile.getName() : ""), e);
 				}
 			}
+		}
+	}
+
+	/**
+	 * Header read from a stream and the bytes read past it
+	 */
+	private record Head(Header header, byte[] bytes, int end) {
+		/**
+		 * @return content following the header
+		 */
+		InputStream rest(InputStream inputStream) {
+			return new SequenceInputStream(new ByteArrayInputStream(bytes, end, bytes.length - end), inputStream);
+		}
+	}
+
+	/**
+	 * Reads a whole file into a buffer, large files are memory-mapped
+	 *
+	 * @param songFile file
+	 * @return buffer with the file content
+	 */
+	public static ByteBuffer read(File songFile) throws IOException {
+		try(FileChannel channel = FileChannel.open(songFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > MAP_THRESHOLD) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		}
+		return ByteBuffer.wrap(Files.readAllBytes(songFile.toPath()));
+	}
+
+	/**
+	 * Parses a Song from a buffer and a Note Block Studio project file (.nbs)
+	 *
+	 * @param data     content of a .nbs file
+	 * @param songFile representing a .nbs file
+	 * @return Song object representing the given .nbs file
+	 * @see Song
+	 */
+	private static Song parse(ByteBuffer data, File songFile) {
+		try {
+			return decode(data, songFile);
+		}
+		catch(IOException e) {
+			Nota.LOGGER.warn(e.getMessage());
+		}
+		return null;
+	}
+
+	private static Song decodeUnchecked(ByteBuffer data, File songFile) throws IOException {
+		ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		Header header = readHeader(buffer);
+		// notes take at least 6 bytes each
+		CompiledSong.Builder timeline = new CompiledSong.Builder(buffer.remaining() / 6);
+		String[] layerNames = new String[Math.max(header.songHeight, 0)];
+		Body body = readBody(new BufferInput(buffer), header, new NoteSink() {
+			@Override
+			public void note(int tick, int layer, byte instrument, byte key, byte velocity, int panning, short pitch) {
+				timeline.add(tick, layer, PackedNote.pack(instrument, key, velocity, panning, pitch));
+			}
 
-			if(nbsversion > 0 && nbsversion < 3) {
-				length = tick;
+			@Override
+			public void tick(int tick) {
 			}
 
-			for(int i = 0; i < songHeight; i++) {
-				Layer layer = layerHashMap.get(i);
+			@Override
+			public void layer(int layer, String name, byte volume, int panning) {
+				layerNames[layer] = name;
+				timeline.setLayer(layer, volume, panning);
+			}
+		});
 
-				String name = readString(dataInputStream);
-				if(nbsversion >= 4) {
-					dataInputStream.readByte(); // layer lock
+		return new Song(header.speed, timeline.build(), layerNames, header.songHeight, body.length(), header.title,
+				header.author, header.originalAuthor, header.description, songFile, body.firstCustomInstrument(), body.customInstruments(), body.isStereo());
+	}
+
+	/**
+	 * Decodes notes, layers and custom instruments of a stream positioned after the header
+	 */
+	private static void streamNotes(DataInputStream data, Header header, StreamingSong song) throws IOException {
+		int songHeight = Math.max(0, (int) header.songHeight);
+		String[] names = new String[songHeight];
+		byte[] volumes = new byte[songHeight];
+		short[] pannings = new short[songHeight];
+		Body body = readBody(new StreamInput(data), header, new NoteSink() {
+			@Override
+			public void note(int tick, int layer, byte instrument, byte key, byte velocity, int panning, short pitch) {
+				song.addNote(tick, layer, instrument, key, velocity, panning, pitch);
+			}
+
+			@Override
+			public void tick(int tick) {
+				song.publish(tick);
+			}
+
+			@Override
+			public void layer(int layer, String name, byte volume, int panning) {
+				names[layer] = name;
+				volumes[layer] = volume;
+				pannings[layer] = (short) panning;
+			}
+		});
+		song.setLayers(names, volumes, pannings);
+		song.complete(body.length(), body.customInstruments(), body.firstCustomInstrument(), body.isStereo());
+	}
+
+	/**
+	 * Reads notes, layers and custom instruments which follow the header, shared by decoding and streaming
+	 *
+	 * @param input  content positioned after the header
+	 * @param header header of the song
+	 * @param sink   receives notes and layers in file order
+	 * @return length and custom instruments of the song
+	 * @throws IOException if the content can't be read or is corrupted
+	 */
+	private static Body readBody(Input input, Header header, NoteSink sink) throws IOException {
+		boolean isStereo = false;
+		int nbsversion = header.nbsversion;
+		int firstcustominstrument = header.firstCustomInstrument;
+		int firstcustominstrumentdiff = InstrumentUtils.getCustomInstrumentFirstIndex() - firstcustominstrument;
+		short length = header.length;
+		short tick = -1;
+		while(true) {
+			short jumpTicks = input.readShort(); // jumps till next tick
+			if(jumpTicks == 0) {
+				break;
+			}
+			if(jumpTicks < 0) {
+				throw new IOException("Song is corrupted: negative tick jump");
+			}
+			tick += jumpTicks;
+			short layer = -1;
+			while(true) {
+				short jumpLayers = input.readShort(); // jumps till next layer
+				if(jumpLayers == 0) {
+					break;
 				}
+				layer += jumpLayers;
+				byte instrument = input.readByte();
 
-				byte volume = dataInputStream.readByte();
+				if(firstcustominstrumentdiff > 0 && instrument >= firstcustominstrument) {
+					instrument += (byte) firstcustominstrumentdiff;
+				}
+
+				byte key = input.readByte();
+				byte velocity = 100;
 				int panning = 100;
-				if(nbsversion >= 2) {
-					panning = 200 - dataInputStream.readUnsignedByte(); // layer stereo, 0 is right in nbs format
+				short pitch = 0;
+				if(nbsversion >= 4) {
+					velocity = input.readByte(); // note block velocity
+					panning = 200 - Byte.toUnsignedInt(input.readByte()); // note panning, 0 is right in nbs format
+					pitch = input.readShort(); // note block pitch
 				}
 
 				if(panning != 100) {
 					isStereo = true;
 				}
-
-				if(layer != null) {
-					layer.setName(name);
-					layer.setVolume(volume);
-					layer.setPanning(panning);
+				if(layer >= 0) {
+					sink.note(tick, layer, instrument, key/* note */, velocity, panning, pitch);
 				}
 			}
-			//count of custom instruments
-			byte customAmnt = dataInputStream.readByte();
-			CustomInstrument[] customInstrumentsArray = new CustomInstrument[customAmnt];
-
-			for(int index = 0; index < customAmnt; index++) {
-				customInstrumentsArray[index] = new CustomInstrument((byte) index,
-						readString(dataInputStream), readString(dataInputStream));
-				dataInputStream.readByte();//pitch
-				dataInputStream.readByte();//key
+			sink.tick(tick);
+		}
+
+		if(nbsversion > 0 && nbsversion < 3) {
+			length = tick;
+		}
+
+		for(int i = 0; i < header.songHeight; i++) {
+			String name = input.readString();
+			if(nbsversion >= 4) {
+				input.readByte(); // layer lock
 			}
 
-			if(firstcustominstrumentdiff < 0) {
-				ArrayList<CustomInstrument> customInstruments = getVersionCustomInstrumentsForSong(firstcustominstrument);
-				customInstruments.addAll(Arrays.asList(customInstrumentsArray));
-				customInstrumentsArray = customInstruments.toArray(customInstrumentsArray);
+			byte volume = input.readByte();
+			int panning = 100;
+			if(nbsversion >= 2) {
+				panning = 200 - Byte.toUnsignedInt(input.readByte()); // layer stereo, 0 is right in nbs format
 			}
-			else {
-				firstcustominstrument += firstcustominstrumentdiff;
+
+			if(panning != 100) {
+				isStereo = true;
 			}
+			sink.layer(i, name, volume, panning);
+		}
+
+		//count of custom instruments
+		byte customAmnt = input.readByte();
+		if(customAmnt < 0) {
+			throw new IOException("Song is corrupted: negative custom instrument count");
+		}
+		CustomInstrument[] customInstrumentsArray = new CustomInstrument[customAmnt];
+
+		for(int index = 0; index < customAmnt; index++) {
+			customInstrumentsArray[index] = new CustomInstrument((byte) index,
+					input.readString(), input.readString());
+			input.readByte();//pitch
+			input.readByte();//key
+		}
+
+		if(firstcustominstrumentdiff < 0) {
+			ArrayList<CustomInstrument> customInstruments = getVersionCustomInstrumentsForSong(firstcustominstrument);
+			customInstruments.addAll(Arrays.asList(customInstrumentsArray));
+			customInstrumentsArray = customInstruments.toArray(customInstrumentsArray);
+		}
+		else {
+			firstcustominstrument += firstcustominstrumentdiff;
+		}
+		return new Body(length, customInstrumentsArray, firstcustominstrument, isStereo);
+	}
+
+	/**
+	 * Source of the little-endian values of a .nbs file, either a buffer or a stream
+	 */
+	private interface Input {
+		short readShort() throws IOException;
+
+		byte readByte() throws IOException;
+
+		String readString() throws IOException;
+	}
+
+	private record BufferInput(ByteBuffer buffer) implements Input {
+		@Override
+		public short readShort() {
+			return buffer.getShort();
+		}
+
+		@Override
+		public byte readByte() {
+			return buffer.get();
+		}
+
+		@Override
+		public String readString() {
+			return NBSDecoder.readString(buffer);
+		}
+	}
+
+	private record StreamInput(DataInputStream data) implements Input {
+		@Override
+		public short readShort() throws IOException {
+			return Short.reverseBytes(data.readShort());
+		}
 
-			return new Song(speed, layerHashMap, songHeight, length, title,
-					author, originalAuthor, description, songFile, firstcustominstrument, customInstrumentsArray, isStereo);
+		@Override
+		public byte readByte() throws IOException {
+			return data.readByte();
 		}
-		catch(FileNotFoundException e) {
-			e.printStackTrace();
+
+		@Override
+		public String readString() throws IOException {
+			return NBSDecoder.readString(data);
 		}
-		catch(EOFException e) {
-			String file = "";
-			if(songFile != null) {
-				file = songFile.getName();
+	}
+
+	/**
+	 * Receives what {@link #readBody(Input, Header, NoteSink)} decodes
+	 */
+	private interface NoteSink {
+		void note(int tick, int layer, byte instrument, byte key, byte velocity, int panning, short pitch);
+
+		/**
+		 * Called after all notes of a tick were passed
+		 */
+		void tick(int tick);
+
+		void layer(int layer, String name, byte volume, int panning);
+	}
+
+	/**
+	 * Song fields which follow the note blocks
+	 */
+	private record Body(short length, CustomInstrument[] customInstruments, int firstCustomInstrument, boolean isStereo) {
+	}
+
+	private static Header readHeader(ByteBuffer buffer) {
+		Header header = new Header();
+		header.length = buffer.getShort();
+		header.firstCustomInstrument = 10; //Backward compatibility - most of songs with old structure are from 1.12
+		if(header.length == 0) {
+			header.nbsversion = buffer.get();
+			header.firstCustomInstrument = buffer.get();
+			if(header.nbsversion >= 3) {
+				header.length = buffer.getShort();
 			}
-			// TODO: logger here
-//			Bukkit.getServer().getConsoleSender().sendMessage(ChatColor.RED + "Song is corrupted: " + file);
 		}
-		catch(IOException e) {
-			e.printStackTrace();
+		header.songHeight = buffer.getShort();
+		header.title = readString(buffer);
+		header.author = readString(buffer);
+		header.originalAuthor = readString(buffer); // original author
+		header.description = readString(buffer);
+		header.speed = buffer.getShort() / 100f;
+		buffer.get(); // auto-save
+		buffer.get(); // auto-save duration
+		buffer.get(); // x/4ths, time signature
+		buffer.getInt(); // minutes spent on project
+		buffer.getInt(); // left clicks (why?)
+		buffer.getInt(); // right clicks (why?)
+		buffer.getInt(); // blocks added
+		buffer.getInt(); // blocks removed
+		skipString(buffer); // .mid/.schematic file name
+		if(header.nbsversion >= 4) {
+			buffer.get(); // loop on/off
+			buffer.get(); // max loop count
+			buffer.getShort(); // loop start tick
 		}
-		return null;
+		return header;
+	}
+
+	/**
+	 * Fields of the .nbs header which is in front of the note blocks
+	 */
+	private static class Header {
+		int nbsversion = 0;
+		int firstCustomInstrument;
+		short length;
+		short songHeight;
+		String title;
+		String author;
+		String originalAuthor;
+		String description;
+		float speed;
 	}
 
 	public static ArrayList<CustomInstrument> getVersionCustomInstrumentsForSong(int firstCustomInstrumentIndex) {
@@ -239,40 +606,64 @@ public class NBSDecoder {
 		return instruments;
 	}
 
-	private static void setNote(int layerIndex, int ticks, Note note, HashMap<Integer, Layer> layerHashMap) {
-		Layer layer = layerHashMap.get(layerIndex);
-		if(layer == null) {
-			layer = new Layer();
-			layerHashMap.put(layerIndex, layer);
+	/**
+	 * Skips the note blocks
+	 *
+	 * @return last tick with a note
+	 */
+	private static short skipNotes(Input input, int nbsversion) throws IOException {
+		int noteLength = nbsversion >= 4 ? 6 : 2;
+		short tick = -1;
+		short jumpTicks;
+		while((jumpTicks = input.readShort()) != 0) {
+			tick += jumpTicks;
+			while(input.readShort() != 0) {
+				for(int i = 0; i < noteLength; i++) {
+					input.readByte();
+				}
+			}
 		}
-		layer.setNote(ticks, note);
+		return tick;
 	}
 
-	private static short readShort(DataInputStream dataInputStream) throws IOException {
-		int byte1 = dataInputStream.readUnsignedByte();
-		int byte2 = dataInputStream.readUnsignedByte();
-		return (short) (byte1 + (byte2 << 8));
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		for(int i = 0; i < length; i++) {
+			if(bytes[i] == 0x0D) {
+				bytes[i] = ' ';
+			}
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
 	}
 
-	private static int readInt(DataInputStream dataInputStream) throws IOException {
-		int byte1 = dataInputStream.readUnsignedByte();
-		int byte2 = dataInputStream.readUnsignedByte();
-		int byte3 = dataInputStream.readUnsignedByte();
-		int byte4 = dataInputStream.readUnsignedByte();
-		return (byte1 + (byte2 << 8) + (byte3 << 16) + (byte4 << 24));
+	private static String readString(DataInputStream data) throws IOException {
+		int length = Integer.reverseBytes(data.readInt());
+		if(length < 0) {
+			throw new IOException("Song is corrupted: negative string length");
+		}
+		byte[] bytes = data.readNBytes(length);
+		if(bytes.length < length) {
+			throw new EOFException();
+		}
+		for(int i = 0; i < length; i++) {
+			if(bytes[i] == 0x0D) {
+				bytes[i] = ' ';
+			}
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
 	}
 
-	private static String readString(DataInputStream dataInputStream) throws IOException {
-		int length = readInt(dataInputStream);
-		StringBuilder builder = new StringBuilder(length);
-		for(; length > 0; --length) {
-			char c = (char) dataInputStream.readByte();
-			if(c == (char) 0x0D) {
-				c = ' ';
-			}
-			builder.append(c);
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
 		}
-		return builder.toString();
+		buffer.position(buffer.position() + length);
 	}
 
 }
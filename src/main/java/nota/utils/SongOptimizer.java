@@ -0,0 +1,146 @@
+package nota.utils;
+
+import nota.model.CompiledSong;
+import nota.model.Layer;
+import nota.model.Note;
+import nota.model.Song;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Removes notes which make no difference to what is heard, so fewer packets are sent during playback.
+ * <ul>
+ *     <li>notes with velocity 0 and notes in layers with volume 0 are dropped</li>
+ *     <li>notes with the same instrument, key, pitch and panning played at the same tick are merged into one louder note,
+ *     as long as the merged velocity does not exceed 100</li>
+ *     <li>layers without notes are removed and the remaining layers are renumbered in their order</li>
+ * </ul>
+ * The original Song is not modified.
+ *
+ * <pre>{@code
+ * SongOptimizer.Result result = SongOptimizer.optimize(song);
+ * Song optimized = result.song();
+ * }</pre>
+ */
+public class SongOptimizer {
+
+	/**
+	 * Outcome of an optimization
+	 *
+	 * @param song          optimized song
+	 * @param droppedNotes  notes which could not be heard
+	 * @param mergedNotes   notes merged into another note
+	 * @param removedLayers layers removed because they had no notes left
+	 * @param savedPackets  sound packets less sent to each listener during the whole song
+	 */
+	public record Result(Song song, int droppedNotes, int mergedNotes, int removedLayers, int savedPackets) {
+	}
+
+	/**
+	 * Optimizes a song
+	 *
+	 * @param song song
+	 * @return optimized copy of the song and what was saved
+	 */
+	public static Result optimize(Song song) {
+		CompiledSong compiled = song.getCompiled();
+		int droppedNotes = 0;
+		int mergedNotes = 0;
+
+		// kept notes per tick, effective volume is layer volume * velocity
+		HashMap<Integer, ArrayList<Kept>> keptAtTicks = new HashMap<>();
+		TreeSet<Integer> usedLayers = new TreeSet<>();
+		int layerCount = song.getSongHeight();
+		for(int tick = 0; tick <= compiled.getLastTick(); tick++) {
+			int start = compiled.getStart(tick);
+			int end = compiled.getEnd(tick);
+			if(start == end) {
+				continue;
+			}
+			ArrayList<Kept> notes = new ArrayList<>(end - start);
+			for(int i = start; i < end; i++) {
+				int layer = compiled.getLayer(i);
+				layerCount = Math.max(layerCount, layer + 1);
+				int layerVolume = compiled.getLayerVolume(layer);
+				int effective = layerVolume * compiled.getVelocity(i);
+				if(effective <= 0) {
+					droppedNotes++;
+					continue;
+				}
+				Kept same = null;
+				for(Kept note : notes) {
+					if(note.isSameSound(compiled, i)) {
+						same = note;
+						break;
+					}
+				}
+				if(same != null && same.effective + effective <= same.layerVolume * 100) {
+					same.effective += effective;
+					mergedNotes++;
+					continue;
+				}
+				notes.add(new Kept(i, layer, layerVolume, effective));
+				usedLayers.add(layer);
+			}
+			if(!notes.isEmpty()) {
+				keptAtTicks.put(tick, notes);
+			}
+		}
+
+		// renumber layers in their order
+		HashMap<Integer, Integer> layerIndices = new HashMap<>();
+		HashMap<Integer, Layer> layerHashMap = new HashMap<>();
+		for(int oldIndex : usedLayers) {
+			int newIndex = layerIndices.size();
+			layerIndices.put(oldIndex, newIndex);
+			Layer layer = new Layer();
+			// the input song must stay compiled, so its Layers are never built
+			layer.setName(song.getLayerName(oldIndex));
+			layer.setVolume(compiled.getLayerVolume(oldIndex));
+			layer.setPanning(compiled.getLayerPanning(oldIndex));
+			layerHashMap.put(newIndex, layer);
+		}
+		for(var entry : keptAtTicks.entrySet()) {
+			for(Kept note : entry.getValue()) {
+				int i = note.index;
+				byte velocity = (byte) Math.min(100, Math.round(note.effective / (float) note.layerVolume));
+				layerHashMap.get(layerIndices.get(note.layer)).setNote(entry.getKey(),
+						new Note(compiled.getInstrument(i), compiled.getKey(i), velocity, compiled.getPanning(i), compiled.getPitch(i)));
+			}
+		}
+
+		int removedLayers = layerCount - layerHashMap.size();
+
+		Song optimized = new Song(song.getSpeed(), layerHashMap, (short) layerHashMap.size(), song.getLength(), song.getTitle(),
+				song.getAuthor(), song.getOriginalAuthor(), song.getDescription(), song.getPath(),
+				song.getFirstCustomInstrumentIndex(), song.getCustomInstruments(), song.isStereo());
+		return new Result(optimized, droppedNotes, mergedNotes, removedLayers, droppedNotes + mergedNotes);
+	}
+
+	private static class Kept {
+		final int index;
+		final int layer;
+		final int layerVolume;
+		int effective;
+
+		Kept(int index, int layer, int layerVolume, int effective) {
+			this.index = index;
+			this.layer = layer;
+			this.layerVolume = layerVolume;
+			this.effective = effective;
+		}
+
+		/**
+		 * Returns true if note at an index sounds the same as this note apart from volume
+		 */
+		boolean isSameSound(CompiledSong compiled, int other) {
+			return compiled.getInstrument(index) == compiled.getInstrument(other)
+					&& compiled.getKey(index) == compiled.getKey(other)
+					&& compiled.getPitch(index) == compiled.getPitch(other)
+					&& compiled.getPanning(index) == compiled.getPanning(other)
+					&& compiled.getLayerPanning(layer) == compiled.getLayerPanning(compiled.getLayer(other));
+		}
+	}
+}